@@ -0,0 +1,293 @@
+package msindwan.handbook.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import msindwan.handbook.data.schema.SearchTable;
+import msindwan.handbook.models.Image;
+import msindwan.handbook.models.Requirement;
+import msindwan.handbook.models.Step;
+import msindwan.handbook.models.Tutorial;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the database helper, run against an
+ * in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseHelperTest {
+
+    private DatabaseHelper m_helper;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        m_helper = new DatabaseHelper(context, null, new QueryCounter());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_helper.close();
+    }
+
+    private long[] search(String input) {
+        String match = SearchTable.buildMatchQuery(input, null);
+        if (match == null) {
+            return new long[0];
+        }
+
+        Cursor cursor = m_helper.getReadableDatabase().rawQuery(
+                "SELECT docid FROM tutorials_search WHERE tutorials_search MATCH ?"
+                + " ORDER BY docid IN (SELECT docid FROM tutorials_search"
+                + " WHERE tutorials_search MATCH ?) DESC, docid",
+                new String[] { match, SearchTable.buildMatchQuery(input, SearchTable.COL_NAME) });
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long[] rank(String input, long[] within) {
+        Cursor cursor = m_helper.getReadableDatabase().rawQuery(
+                SearchTable.buildRankedMatchQuery(within) + " ORDER BY hits DESC",
+                new String[] { SearchTable.buildMatchQuery(input, null) });
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private Tutorial createTutorial(int numSteps) {
+        Tutorial tutorial = new Tutorial();
+        tutorial.setName("Tutorial");
+        tutorial.setDescription("Description");
+
+        for (int i = 0; i < numSteps; i++) {
+            Step step = new Step();
+            step.setTitle("Step " + i);
+            step.setInstructions("Instructions " + i);
+
+            Requirement requirement = new Requirement();
+            requirement.setName("Requirement " + i);
+            requirement.setAmount((double)i);
+            step.addRequirement(requirement);
+
+            Image image = new Image();
+            image.setImageURI(Uri.parse("content://images/" + i));
+            step.addImage(image);
+
+            tutorial.addStep(step);
+        }
+        return tutorial;
+    }
+
+    @Test
+    public void insert_writesIdsIntoModels() throws Exception {
+        Tutorial tutorial = createTutorial(3);
+        long id = m_helper.insert(tutorial);
+
+        assertEquals(Long.valueOf(id), tutorial.getId());
+        for (int i = 0; i < tutorial.getNumSteps(); i++) {
+            Step step = tutorial.getStep(i);
+            assertNotNull(step.getId());
+            assertEquals(tutorial.getId(), step.getTutorialId());
+            assertNotNull(step.getRequirement(0).getId());
+            assertEquals(step.getId(), step.getRequirement(0).getStepId());
+            assertNotNull(step.getImage(0).getId());
+            assertEquals(step.getId(), step.getImage(0).getStepId());
+        }
+    }
+
+    @Test
+    public void fetch_hydratesGraph() throws Exception {
+        long id = m_helper.insert(createTutorial(3));
+
+        Tutorial tutorial = new Tutorial();
+        assertTrue(m_helper.fetch(tutorial, id));
+        assertEquals("Tutorial", tutorial.getName());
+        assertEquals(3, tutorial.getNumSteps());
+
+        for (int i = 0; i < tutorial.getNumSteps(); i++) {
+            Step step = tutorial.getStep(i);
+            assertEquals("Step " + i, step.getTitle());
+            assertEquals(1, step.getNumRequirements());
+            assertEquals("Requirement " + i, step.getRequirement(0).getName());
+            assertEquals(step.getId(), step.getRequirement(0).getStepId());
+            assertEquals(1, step.getNumImages());
+            assertEquals(Uri.parse("content://images/" + i), step.getImage(0).getImageURI());
+        }
+    }
+
+    @Test
+    public void fetch_readsImageMetadata() throws Exception {
+        Tutorial tutorial = createTutorial(1);
+        Image image = tutorial.getStep(0).getImage(0);
+        image.setName("dough.jpg");
+        image.setSize(2048);
+        image.setDimensions(640, 480);
+        image.setMimeType("image/jpeg");
+        long id = m_helper.insert(tutorial);
+
+        Tutorial fetched = new Tutorial();
+        assertTrue(m_helper.fetch(fetched, id));
+        Image fetchedImage = fetched.getStep(0).getImage(0);
+        assertTrue(fetchedImage.hasMetadata());
+        assertEquals("dough.jpg", fetchedImage.getName());
+        assertEquals(2048, fetchedImage.getSize());
+        assertEquals(640, fetchedImage.getWidth());
+        assertEquals(480, fetchedImage.getHeight());
+        assertEquals("image/jpeg", fetchedImage.getMimeType());
+        assertFalse(fetched.hasChanges());
+    }
+
+    @Test
+    public void fetchCoverImageURI_returnsFirstImageInStepOrder() throws Exception {
+        Tutorial tutorial = createTutorial(3);
+        tutorial.getStep(0).removeImage(tutorial.getStep(0).getImage(0));
+        long id = m_helper.insert(tutorial);
+
+        assertEquals(Uri.parse("content://images/1"), m_helper.fetchCoverImageURI(id));
+        assertNull(m_helper.fetchCoverImageURI(m_helper.insert(createTutorial(0))));
+    }
+
+    @Test
+    public void fetch_usesConstantNumberOfQueries() throws Exception {
+        long smallId = m_helper.insert(createTutorial(2));
+        long largeId = m_helper.insert(createTutorial(150));
+
+        long before = m_helper.getQueryCount();
+        assertTrue(m_helper.fetch(new Tutorial(), smallId));
+        long smallQueries = m_helper.getQueryCount() - before;
+
+        before = m_helper.getQueryCount();
+        assertTrue(m_helper.fetch(new Tutorial(), largeId));
+        long largeQueries = m_helper.getQueryCount() - before;
+
+        assertEquals(4, smallQueries);
+        assertEquals(smallQueries, largeQueries);
+    }
+
+    private long totalChanges() {
+        Cursor cursor = m_helper.getWritableDatabase().rawQuery("SELECT total_changes()", null);
+        cursor.moveToFirst();
+        long changes = cursor.getLong(0);
+        cursor.close();
+        return changes;
+    }
+
+    @Test
+    public void update_writesOnlyChangedRows() throws Exception {
+        long id = m_helper.insert(createTutorial(50));
+        Tutorial tutorial = new Tutorial();
+        m_helper.fetch(tutorial, id);
+        assertFalse(tutorial.hasChanges());
+
+        // Saving an unmodified tutorial writes nothing.
+        long before = totalChanges();
+        m_helper.update(tutorial);
+        assertEquals(before, totalChanges());
+
+        // Fixing a single step title touches the step, the tutorial's
+        // last modified date and the tutorial's search document only.
+        tutorial.getStep(10).setTitle("Fixed");
+        assertTrue(tutorial.getStep(10).isDirty(Step.FIELD_TITLE));
+        assertFalse(tutorial.getStep(10).isDirty(Step.FIELD_INSTRUCTIONS));
+
+        before = totalChanges();
+        m_helper.update(tutorial);
+        assertEquals(before + 4, totalChanges());
+        assertFalse(tutorial.hasChanges());
+
+        Tutorial fetched = new Tutorial();
+        m_helper.fetch(fetched, id);
+        assertEquals("Fixed", fetched.getStep(10).getTitle());
+        assertEquals("Instructions 10", fetched.getStep(10).getInstructions());
+    }
+
+    @Test
+    public void search_tracksInsertUpdateAndDelete() throws Exception {
+        long id = m_helper.insert(createTutorial(3));
+        assertArrayEquals(new long[] { id }, search("requirem"));
+        assertArrayEquals(new long[] { id }, search("instructions 2"));
+        assertArrayEquals(new long[0], search("knead"));
+
+        Tutorial tutorial = new Tutorial();
+        m_helper.fetch(tutorial, id);
+        tutorial.getStep(1).setInstructions("Knead the dough");
+        m_helper.update(tutorial);
+        assertArrayEquals(new long[] { id }, search("knead"));
+
+        m_helper.delete(tutorial);
+        assertArrayEquals(new long[0], search("requirem"));
+    }
+
+    @Test
+    public void search_ranksNameMatchesFirst() throws Exception {
+        Tutorial bread = createTutorial(1);
+        bread.setName("Bread");
+        bread.getStep(0).setInstructions("Serve with soup");
+        long breadId = m_helper.insert(bread);
+
+        Tutorial soup = createTutorial(1);
+        soup.setName("Soup");
+        long soupId = m_helper.insert(soup);
+
+        assertArrayEquals(new long[] { soupId, breadId }, search("soup"));
+        assertArrayEquals(new long[0], search("!?"));
+    }
+
+    @Test
+    public void search_ranksByNumberOfHits() throws Exception {
+        // Three hits far into a long description, whose offsets take more
+        // characters to list than four hits at the start of a short one.
+        StringBuilder description = new StringBuilder();
+        for (int i = 0; i < 2000; i++) {
+            description.append("lorem ");
+        }
+        description.append("knead knead knead");
+
+        Tutorial longer = createTutorial(0);
+        longer.setDescription(description.toString());
+        long longerId = m_helper.insert(longer);
+
+        Tutorial shorter = createTutorial(0);
+        shorter.setDescription("knead knead knead knead");
+        long shorterId = m_helper.insert(shorter);
+
+        assertArrayEquals(new long[] { shorterId, longerId }, rank("knead", null));
+    }
+
+    @Test
+    public void search_narrowsToPreviousResults() throws Exception {
+        long first = m_helper.insert(createTutorial(1));
+        long second = m_helper.insert(createTutorial(1));
+
+        assertArrayEquals(new long[] { second }, rank("requirem", new long[] { second }));
+        assertArrayEquals(new long[0], rank("requirem", new long[0]));
+        assertEquals(2, rank("requirem", new long[] { first, second }).length);
+    }
+
+    @Test
+    public void fetch_missingTutorial() throws Exception {
+        assertFalse(m_helper.fetch(new Tutorial(), 42));
+    }
+}
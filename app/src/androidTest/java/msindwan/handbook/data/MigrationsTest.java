@@ -0,0 +1,88 @@
+package msindwan.handbook.data;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.List;
+
+import msindwan.handbook.data.schema.BackfillTable;
+import msindwan.handbook.data.schema.Migrations;
+import msindwan.handbook.data.schema.TutorialTable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests that upgrade fixture databases of every prior
+ * version to the latest schema.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MigrationsTest {
+
+    private DatabaseHelper m_helper;
+    private List<String> m_latest;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        m_helper = new DatabaseHelper(context, null, new QueryCounter());
+        m_latest = SchemaFixtures.describe(m_helper.getWritableDatabase());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_helper.close();
+    }
+
+    @Test
+    public void upgrade_fromEveryPriorVersion() throws Exception {
+        // The latest fixture is upgraded too, so the tables created from
+        // scratch are checked against the migration history.
+        for (int version = 1; version <= Migrations.LATEST_VERSION; version++) {
+            SQLiteDatabase db = SQLiteDatabase.create(null);
+            try {
+                SchemaFixtures.create(db, version);
+
+                db.beginTransaction();
+                try {
+                    m_helper.onUpgrade(db, version, Migrations.LATEST_VERSION);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                Migrations.runBackfills(db, 1);
+
+                assertEquals("Upgrade from version " + version,
+                        m_latest, SchemaFixtures.describe(db));
+                assertEquals(1, DatabaseUtils.queryNumEntries(db, TutorialTable.TABLE_NAME));
+                assertFalse(BackfillTable.hasPending(db));
+            } finally {
+                db.close();
+            }
+        }
+    }
+
+    @Test
+    public void upgrade_appliesOnlyNewerMigrations() throws Exception {
+        SQLiteDatabase db = SQLiteDatabase.create(null);
+        try {
+            SchemaFixtures.create(db, 2);
+            Migrations.upgrade(db, 2, 2);
+            assertEquals(0, DatabaseUtils.queryNumEntries(
+                    db, "sqlite_master", "name = ?", new String[] { BackfillTable.TABLE_NAME }));
+
+            Migrations.V3_BACKFILLS.migrate(db);
+            assertEquals(1, DatabaseUtils.queryNumEntries(
+                    db, "sqlite_master", "name = ?", new String[] { BackfillTable.TABLE_NAME }));
+        } finally {
+            db.close();
+        }
+    }
+}
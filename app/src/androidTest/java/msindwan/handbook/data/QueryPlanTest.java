@@ -0,0 +1,125 @@
+package msindwan.handbook.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import msindwan.handbook.data.schema.ImageTable;
+import msindwan.handbook.data.schema.RequirementTable;
+import msindwan.handbook.data.schema.StepTable;
+import msindwan.handbook.data.schema.TutorialTable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests that assert the hot queries are served by indexes.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueryPlanTest {
+
+    private DatabaseHelper m_helper;
+    private SQLiteDatabase m_db;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        m_helper = new DatabaseHelper(context, null, new QueryCounter());
+        m_db = m_helper.getWritableDatabase();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_helper.close();
+    }
+
+    private List<String> explain(String sql, String... args) {
+        List<String> plan = new ArrayList<>();
+        Cursor cursor = m_db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        int detail = cursor.getColumnIndex("detail");
+        while (cursor.moveToNext()) {
+            plan.add(cursor.getString(detail));
+        }
+        cursor.close();
+        return plan;
+    }
+
+    private void assertUsesIndex(List<String> plan, String index) {
+        for (String detail : plan) {
+            if (detail.contains(index)) {
+                return;
+            }
+        }
+        fail("Expected " + index + " in plan " + plan);
+    }
+
+    private void assertNoSort(List<String> plan) {
+        for (String detail : plan) {
+            assertFalse("Unexpected sort in plan " + plan, detail.contains("TEMP B-TREE"));
+        }
+    }
+
+    @Test
+    public void stepsByTutorial_usesIndex() throws Exception {
+        List<String> plan = explain(
+                "SELECT * FROM " + StepTable.TABLE_NAME
+                + " WHERE " + StepTable.COL_TUTORIAL_ID + " = ?"
+                + " ORDER BY " + StepTable.COL_INDEX,
+                "1");
+        assertUsesIndex(plan, StepTable.IDX_TUTORIAL_ID);
+        assertNoSort(plan);
+    }
+
+    @Test
+    public void requirementsByStep_usesIndex() throws Exception {
+        assertUsesIndex(
+                explain("SELECT * FROM " + RequirementTable.TABLE_NAME
+                        + " WHERE " + RequirementTable.COL_STEP_ID + " = ?", "1"),
+                RequirementTable.IDX_STEP_ID);
+    }
+
+    @Test
+    public void imagesByStep_usesIndex() throws Exception {
+        assertUsesIndex(
+                explain("SELECT * FROM " + ImageTable.TABLE_NAME
+                        + " WHERE " + ImageTable.COL_STEP_ID + " = ?", "1"),
+                ImageTable.IDX_STEP_ID);
+    }
+
+    @Test
+    public void dashboardPages_seekThroughCoveringIndexes() throws Exception {
+        String select = "SELECT " + TutorialTable.COL_ID + ", " + TutorialTable.COL_NAME
+                + ", " + TutorialTable.COL_LAST_MODIFIED + ", " + TutorialTable.COL_NUM_VIEWS
+                + " FROM " + TutorialTable.TABLE_NAME;
+
+        String name = TutorialTable.COL_NAME + " COLLATE LOCALIZED";
+        List<String> plan = explain(select
+                + " WHERE (" + name + " >= ? AND (" + name + " > ? OR _id > ?))"
+                + " ORDER BY " + name + " ASC, _id ASC LIMIT 50", "b", "b", "1");
+        assertUsesIndex(plan, TutorialTable.IDX_NAME);
+        assertNoSort(plan);
+
+        String lastModified = TutorialTable.COL_LAST_MODIFIED;
+        plan = explain(select
+                + " WHERE (" + lastModified + " <= ? AND (" + lastModified + " < ? OR _id < ?))"
+                + " ORDER BY " + lastModified + " DESC, _id DESC LIMIT 50",
+                "2017-01-01 00:00:00", "2017-01-01 00:00:00", "1");
+        assertUsesIndex(plan, TutorialTable.IDX_LAST_MODIFIED);
+        assertNoSort(plan);
+
+        String numViews = TutorialTable.COL_NUM_VIEWS;
+        plan = explain(select
+                + " ORDER BY " + numViews + " DESC, _id DESC LIMIT 50");
+        assertUsesIndex(plan, TutorialTable.IDX_NUM_VIEWS);
+        assertNoSort(plan);
+    }
+}
@@ -0,0 +1,138 @@
+package msindwan.handbook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Frozen schemas of every released database version. A fixture must be added
+ * here whenever a migration is declared so upgrades can be tested from it.
+ */
+class SchemaFixtures {
+
+    private static final String[] V1 = new String[] {
+        "CREATE TABLE tutorials (_id INTEGER PRIMARY KEY,name VARCHAR(100) NOT NULL,"
+                + "description TEXT,date_created DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+                + "last_modified DATETIME NOT NULL DEFAULT CURRENT_TIMESTAMP,"
+                + "num_views INTEGER DEFAULT 0 );",
+        "CREATE TABLE steps (_id INTEGER PRIMARY KEY,title VARCHAR(100) NOT NULL,"
+                + "instructions TEXT,tutorial_id INTEGER NOT NULL,step_index INTEGER NOT NULL,"
+                + "FOREIGN KEY(tutorial_id) REFERENCES tutorials(_id) ON DELETE CASCADE);",
+        "CREATE TABLE requirements (_id INTEGER PRIMARY KEY,name VARCHAR(100) NOT NULL,"
+                + "amount REAL,unit VARCHAR(25),step_id INTEGER NOT NULL,"
+                + "optional INTEGER NOT NULL DEFAULT 0,"
+                + "FOREIGN KEY(step_id) REFERENCES steps(_id) ON DELETE CASCADE);",
+        "CREATE TABLE images (_id INTEGER PRIMARY KEY,uri VARCHAR(100) NOT NULL,"
+                + "step_id INTEGER NOT NULL,"
+                + "FOREIGN KEY(step_id) REFERENCES steps(_id) ON DELETE CASCADE);"
+    };
+
+    private static final String[] V2 = new String[] {
+        "CREATE INDEX tutorials_name_idx ON tutorials (name COLLATE LOCALIZED, last_modified);",
+        "CREATE INDEX tutorials_last_modified_idx ON tutorials (last_modified, name);",
+        "CREATE INDEX tutorials_num_views_idx ON tutorials (num_views, name, last_modified);",
+        "CREATE INDEX steps_tutorial_id_idx ON steps (tutorial_id, step_index);",
+        "CREATE INDEX requirements_step_id_idx ON requirements (step_id);",
+        "CREATE INDEX images_step_id_idx ON images (step_id);"
+    };
+
+    private static final String[] V3 = new String[] {
+        "CREATE TABLE backfills (name TEXT PRIMARY KEY,last_id INTEGER NOT NULL DEFAULT 0);"
+    };
+
+    private static final String[] V4 = new String[] {
+        "CREATE VIRTUAL TABLE tutorials_search USING fts4(name, description, steps, requirements);"
+    };
+
+    private static final String[] V5 = new String[] {
+        "DROP INDEX tutorials_name_idx;",
+        "DROP INDEX tutorials_last_modified_idx;",
+        "DROP INDEX tutorials_num_views_idx;",
+        "CREATE INDEX tutorials_name_idx ON tutorials (name COLLATE LOCALIZED, _id, last_modified);",
+        "CREATE INDEX tutorials_last_modified_idx ON tutorials (last_modified, _id, name);",
+        "CREATE INDEX tutorials_num_views_idx ON tutorials (num_views, _id, name, last_modified);"
+    };
+
+    private static final String[] V6 = new String[] {
+        "ALTER TABLE images ADD COLUMN name TEXT;",
+        "ALTER TABLE images ADD COLUMN size INTEGER;",
+        "ALTER TABLE images ADD COLUMN width INTEGER;",
+        "ALTER TABLE images ADD COLUMN height INTEGER;",
+        "ALTER TABLE images ADD COLUMN mime_type TEXT;"
+    };
+
+    private static final String[] SEED = new String[] {
+        "INSERT INTO tutorials (_id, name, description) VALUES (1, 'Bread', 'Baking bread');",
+        "INSERT INTO steps VALUES (1, 'Knead', 'Knead the dough', 1, 0);",
+        "INSERT INTO steps VALUES (2, 'Bake', 'Bake for an hour', 1, 1);",
+        "INSERT INTO requirements VALUES (1, 'Flour', 500, 'g', 1, 0);",
+        "INSERT INTO images (_id, uri, step_id) VALUES (1, 'content://images/1', 2);"
+    };
+
+    /**
+     * Creates the schema of the given version and seeds it with data.
+     */
+    static void create(SQLiteDatabase db, int version) {
+        String[][] versions = new String[][] { V1, V2, V3, V4, V5, V6 };
+        if (version < 1 || version > versions.length) {
+            throw new IllegalArgumentException("No fixture for version " + version);
+        }
+        for (int i = 0; i < version; i++) {
+            for (String sql : versions[i]) {
+                db.execSQL(sql);
+            }
+        }
+        for (String sql : SEED) {
+            db.execSQL(sql);
+        }
+        db.setVersion(version);
+    }
+
+    /**
+     * Describes the tables, columns and indexes of the schema in a form that
+     * doesn't depend on how they were created.
+     */
+    static List<String> describe(SQLiteDatabase db) {
+        List<String> schema = new ArrayList<>();
+        Cursor objects = db.rawQuery(
+                "SELECT type, name, tbl_name FROM sqlite_master"
+                + " WHERE name NOT LIKE 'sqlite_%' AND name != 'android_metadata'", null);
+
+        while (objects.moveToNext()) {
+            String type = objects.getString(0);
+            String name = objects.getString(1);
+
+            if (type.equals("table")) {
+                Cursor columns = db.rawQuery("PRAGMA table_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    schema.add(String.format("column %s.%s %s notnull=%s default=%s pk=%s",
+                            name,
+                            columns.getString(columns.getColumnIndex("name")),
+                            columns.getString(columns.getColumnIndex("type")),
+                            columns.getString(columns.getColumnIndex("notnull")),
+                            columns.getString(columns.getColumnIndex("dflt_value")),
+                            columns.getString(columns.getColumnIndex("pk"))));
+                }
+                columns.close();
+            } else if (type.equals("index")) {
+                StringBuilder index = new StringBuilder(
+                        String.format("index %s on %s", name, objects.getString(2)));
+                Cursor columns = db.rawQuery("PRAGMA index_info(" + name + ")", null);
+                while (columns.moveToNext()) {
+                    index.append(' ').append(columns.getString(columns.getColumnIndex("name")));
+                }
+                columns.close();
+                schema.add(index.toString());
+            } else {
+                schema.add(type + " " + name);
+            }
+        }
+        objects.close();
+
+        Collections.sort(schema);
+        return schema;
+    }
+}
@@ -0,0 +1,104 @@
+package msindwan.handbook.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import msindwan.handbook.models.Tutorial;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the write-behind view counter, run against an
+ * in-memory database.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ViewCounterTest {
+
+    private DatabaseHelper m_helper;
+    private ViewCounter m_counter;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        m_helper = new DatabaseHelper(context, null, new QueryCounter());
+        m_counter = new ViewCounter(context, m_helper);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_counter.awaitFlush();
+        m_helper.close();
+    }
+
+    private long insertTutorial() {
+        Tutorial tutorial = new Tutorial();
+        tutorial.setName("Tutorial");
+        tutorial.setDescription("Description");
+        return m_helper.insert(tutorial);
+    }
+
+    private long queryLong(String sql) {
+        Cursor cursor = m_helper.getReadableDatabase().rawQuery(sql, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long getNumViews(long id) {
+        return queryLong("SELECT num_views FROM tutorials WHERE _id = " + id);
+    }
+
+    @Test
+    public void flush_writesCoalescedViews() throws Exception {
+        long first = insertTutorial();
+        long second = insertTutorial();
+
+        m_counter.record(first);
+        m_counter.record(first);
+        m_counter.record(first);
+        m_counter.record(second);
+
+        // The views haven't been written yet; flushing (e.g. on pause)
+        // writes them without waiting for the batch delay.
+        assertEquals(0, getNumViews(first));
+        long before = queryLong("SELECT total_changes()");
+        m_counter.flush();
+        m_counter.awaitFlush();
+
+        // A single update is issued per tutorial.
+        assertEquals(before + 2, queryLong("SELECT total_changes()"));
+        assertEquals(3, getNumViews(first));
+        assertEquals(1, getNumViews(second));
+    }
+
+    @Test
+    public void flush_restoresViewsWhenWriteFails() throws Exception {
+        long id = insertTutorial();
+        m_helper.getWritableDatabase().execSQL(
+                "CREATE TEMP TRIGGER fail_views BEFORE UPDATE OF num_views ON tutorials"
+                + " BEGIN SELECT RAISE(ABORT, 'fail'); END");
+
+        m_counter.record(id);
+        m_counter.record(id);
+        m_counter.flush();
+        m_counter.awaitFlush();
+        assertEquals(0, getNumViews(id));
+
+        // The failed views are written with the next flush.
+        m_helper.getWritableDatabase().execSQL("DROP TRIGGER fail_views");
+        m_counter.record(id);
+        m_counter.flush();
+        m_counter.awaitFlush();
+        assertEquals(3, getNumViews(id));
+    }
+}
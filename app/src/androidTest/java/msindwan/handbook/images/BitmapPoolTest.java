@@ -0,0 +1,71 @@
+package msindwan.handbook.images;
+
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the reference counting and reuse of pooled bitmaps.
+ */
+@RunWith(AndroidJUnit4.class)
+public class BitmapPoolTest {
+
+    private BitmapPool m_pool;
+
+    @Before
+    public void setUp() throws Exception {
+        m_pool = BitmapPool.getInstance();
+        m_pool.evictAll();
+    }
+
+    @Test
+    public void release_poolsOnceUnreferenced() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        m_pool.retain(bitmap);
+        m_pool.retain(bitmap);
+
+        m_pool.release(bitmap);
+        assertEquals(0, m_pool.getSize());
+
+        m_pool.release(bitmap);
+        assertEquals(bitmap.getByteCount(), m_pool.getSize());
+    }
+
+    @Test
+    public void get_countsHitsAndMisses() {
+        int hits = m_pool.getHitCount();
+        int misses = m_pool.getMissCount();
+
+        assertNull(m_pool.get(64, 64, Bitmap.Config.ARGB_8888));
+        assertEquals(misses + 1, m_pool.getMissCount());
+
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        m_pool.put(bitmap);
+        assertSame(bitmap, m_pool.get(64, 64, Bitmap.Config.ARGB_8888));
+        assertEquals(hits + 1, m_pool.getHitCount());
+        assertEquals(0, m_pool.getSize());
+    }
+
+    @Test
+    public void retain_takesBitmapBackOutOfPool() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888);
+        m_pool.put(bitmap);
+
+        m_pool.retain(bitmap);
+        assertEquals(0, m_pool.getSize());
+        assertNull(m_pool.get(64, 64, Bitmap.Config.ARGB_8888));
+    }
+
+    @Test
+    public void put_ignoresImmutableBitmaps() {
+        Bitmap bitmap = Bitmap.createBitmap(64, 64, Bitmap.Config.ARGB_8888)
+                .copy(Bitmap.Config.ARGB_8888, false);
+        m_pool.put(bitmap);
+        assertEquals(0, m_pool.getSize());
+    }
+}
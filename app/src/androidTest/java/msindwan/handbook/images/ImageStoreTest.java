@@ -0,0 +1,111 @@
+package msindwan.handbook.images;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.support.test.InstrumentationRegistry;
+import android.support.test.runner.AndroidJUnit4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+import msindwan.handbook.data.schema.ImageTable;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for the deduplication and collection of stored images.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ImageStoreTest {
+
+    private File m_directory;
+    private ImageStore m_store;
+    private SQLiteDatabase m_db;
+
+    @Before
+    public void setUp() throws Exception {
+        Context context = InstrumentationRegistry.getTargetContext();
+        m_directory = new File(context.getCacheDir(), "image-store-test");
+        m_store = new ImageStore(context.getContentResolver(), m_directory);
+        m_db = SQLiteDatabase.create(null);
+        ImageTable.createTable(m_db);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_db.close();
+        delete(m_directory);
+    }
+
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        assertTrue(!file.exists() || file.delete());
+    }
+
+    private Uri put(String contents) throws Exception {
+        return m_store.put(new ByteArrayInputStream(contents.getBytes("UTF-8")), "jpg");
+    }
+
+    private void reference(Uri uri) {
+        ContentValues values = new ContentValues();
+        values.put(ImageTable.COL_URI, uri.toString());
+        values.put(ImageTable.COL_STEP_ID, 1);
+        m_db.insert(ImageTable.TABLE_NAME, null, values);
+    }
+
+    @Test
+    public void put_storesIdenticalContentsOnce() throws Exception {
+        Uri first = put("image");
+        Uri second = put("image");
+
+        assertEquals(first, second);
+        assertNotEquals(first, put("other image"));
+        assertTrue(m_store.contains(first));
+    }
+
+    @Test
+    public void put_movesCapturedPhotos() throws Exception {
+        File capture = m_store.createCaptureFile();
+        FileOutputStream out = new FileOutputStream(capture);
+        out.write("image".getBytes("UTF-8"));
+        out.close();
+
+        Uri uri = m_store.put(Uri.fromFile(capture), "jpg");
+        assertFalse(capture.exists());
+        assertTrue(m_store.contains(uri));
+        assertEquals(put("image"), uri);
+    }
+
+    @Test
+    public void collect_deletesUnreferencedCopies() throws Exception {
+        Uri referenced = put("image");
+        Uri unreferenced = put("other image");
+        reference(referenced);
+        reference(referenced);
+
+        assertEquals(1, m_store.collect(m_db, 0));
+        assertTrue(new File(referenced.getPath()).exists());
+        assertFalse(new File(unreferenced.getPath()).exists());
+    }
+
+    @Test
+    public void collect_keepsCopiesWithinGracePeriod() throws Exception {
+        Uri uri = put("image");
+
+        assertEquals(0, m_store.collect(m_db, ImageStore.GRACE_PERIOD));
+        assertTrue(new File(uri.getPath()).exists());
+    }
+}
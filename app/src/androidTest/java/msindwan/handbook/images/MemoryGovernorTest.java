@@ -0,0 +1,66 @@
+package msindwan.handbook.images;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.support.test.runner.AndroidJUnit4;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Instrumentation tests for shedding caches under memory pressure.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MemoryGovernorTest {
+
+    // An isolated governor, so trimming doesn't evict the app's caches.
+    private final MemoryGovernor m_governor = new MemoryGovernor();
+    private final ArrayList<LruCache<String, Bitmap>> m_caches = new ArrayList<>();
+
+    @After
+    public void tearDown() throws Exception {
+        for (LruCache<String, Bitmap> cache : m_caches) {
+            m_governor.unregister(cache);
+        }
+        BitmapPool.getInstance().setPreferredConfig(Bitmap.Config.ARGB_8888);
+    }
+
+    private LruCache<String, Bitmap> register(int trimLevel) {
+        LruCache<String, Bitmap> cache = new LruCache<>(8);
+        cache.put("bitmap", Bitmap.createBitmap(1, 1, Bitmap.Config.ARGB_8888));
+        m_governor.register("test", cache, trimLevel);
+        m_caches.add(cache);
+        return cache;
+    }
+
+    @Test
+    public void onTrimMemory_evictsCachesAtOrBelowLevel() {
+        LruCache<String, Bitmap> low = register(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        LruCache<String, Bitmap> critical =
+                register(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+
+        m_governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        assertEquals(0, low.size());
+        assertEquals(1, critical.size());
+
+        m_governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(0, critical.size());
+    }
+
+    @Test
+    public void onTrimMemory_decodesAsRgb565UntilHidden() {
+        BitmapPool pool = BitmapPool.getInstance();
+
+        m_governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+        assertEquals(Bitmap.Config.RGB_565, pool.getPreferredConfig());
+
+        m_governor.onTrimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
+        assertEquals(Bitmap.Config.ARGB_8888, pool.getPreferredConfig());
+    }
+}
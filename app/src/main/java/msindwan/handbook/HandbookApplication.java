@@ -0,0 +1,36 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook;
+
+import android.app.Application;
+
+import msindwan.handbook.images.MemoryGovernor;
+
+/**
+ * HandbookApplication:
+ * Sets up process-wide state before any activity is created.
+ */
+public class HandbookApplication extends Application {
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        // Caches are sized from the memory budget, so it's read before any
+        // cache is created.
+        MemoryGovernor.getInstance().attach(this);
+    }
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.Locale;
+
+import msindwan.handbook.data.schema.ImageTable;
+import msindwan.handbook.data.schema.RequirementTable;
+import msindwan.handbook.data.schema.SearchTable;
+import msindwan.handbook.data.schema.StepTable;
+import msindwan.handbook.data.schema.TutorialTable;
+import msindwan.handbook.models.Image;
+import msindwan.handbook.models.Requirement;
+import msindwan.handbook.models.Step;
+import msindwan.handbook.models.Tutorial;
+
+/**
+ * BulkWriter:
+ * Inserts model graphs using one compiled statement per table. Statements
+ * are prepared on first use and reused for every row written through the
+ * writer, and generated ids are written back into the models (which are
+ * then marked as clean).
+ */
+@SuppressWarnings("WeakerAccess")
+public class BulkWriter {
+
+    private SQLiteStatement m_insertTutorial;
+    private SQLiteStatement m_insertStep;
+    private SQLiteStatement m_insertRequirement;
+    private SQLiteStatement m_insertImage;
+    private SQLiteDatabase m_db;
+
+    // Constructor.
+    public BulkWriter(SQLiteDatabase db) {
+        m_db = db;
+    }
+
+    /**
+     * Inserts the tutorial and all of its steps in a single transaction.
+     *
+     * @param tutorial The tutorial to insert.
+     * @return the id of the newly created tutorial.
+     */
+    public long insert(Tutorial tutorial) {
+        if (tutorial.getId() != null) {
+            throw new IllegalArgumentException("Tutorial ID already exists.");
+        }
+
+        if (m_insertTutorial == null) {
+            m_insertTutorial = compileInsert(
+                    TutorialTable.TABLE_NAME,
+                    TutorialTable.COL_NAME,
+                    TutorialTable.COL_DESCRIPTION
+            );
+        }
+
+        m_db.beginTransaction();
+        try {
+            bind(m_insertTutorial, 1, tutorial.getName());
+            bind(m_insertTutorial, 2, tutorial.getDescription());
+
+            long id = m_insertTutorial.executeInsert();
+            tutorial.setId(id);
+            tutorial.clearDirty();
+
+            for (int i = 0; i < tutorial.getNumSteps(); i++) {
+                Step step = tutorial.getStep(i);
+                step.setTutorialId(id);
+                insert(step);
+            }
+
+            SearchTable.index(m_db, id);
+            m_db.setTransactionSuccessful();
+            return id;
+        } finally {
+            m_db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts the step along with its requirements and images.
+     *
+     * @param step The step to insert.
+     * @return the id of the newly created step.
+     */
+    public long insert(Step step) {
+        if (step.getId() != null) {
+            throw new IllegalArgumentException("Step ID already exists.");
+        }
+
+        if (m_insertStep == null) {
+            m_insertStep = compileInsert(
+                    StepTable.TABLE_NAME,
+                    StepTable.COL_TITLE,
+                    StepTable.COL_INSTRUCTIONS,
+                    StepTable.COL_TUTORIAL_ID,
+                    StepTable.COL_INDEX
+            );
+        }
+
+        m_db.beginTransaction();
+        try {
+            bind(m_insertStep, 1, step.getTitle());
+            bind(m_insertStep, 2, step.getInstructions());
+            bind(m_insertStep, 3, step.getTutorialId());
+            bind(m_insertStep, 4, step.getIndex());
+
+            long id = m_insertStep.executeInsert();
+            step.setId(id);
+            step.clearDirty();
+
+            int i;
+            for (i = 0; i < step.getNumRequirements(); i++) {
+                Requirement requirement = step.getRequirement(i);
+                requirement.setStepId(id);
+                insert(requirement);
+            }
+
+            for (i = 0; i < step.getNumImages(); i++) {
+                Image image = step.getImage(i);
+                image.setStepId(id);
+                insert(image);
+            }
+
+            m_db.setTransactionSuccessful();
+            return id;
+        } finally {
+            m_db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts the requirement.
+     *
+     * @param requirement The requirement to insert.
+     * @return the id of the newly created requirement.
+     */
+    public long insert(Requirement requirement) {
+        if (requirement.getId() != null) {
+            throw new IllegalArgumentException("Requirement ID already exists.");
+        }
+
+        if (m_insertRequirement == null) {
+            m_insertRequirement = compileInsert(
+                    RequirementTable.TABLE_NAME,
+                    RequirementTable.COL_NAME,
+                    RequirementTable.COL_AMOUNT,
+                    RequirementTable.COL_UNIT,
+                    RequirementTable.COL_STEP_ID,
+                    RequirementTable.COL_OPTIONAL
+            );
+        }
+
+        bind(m_insertRequirement, 1, requirement.getName());
+        bind(m_insertRequirement, 2, requirement.getAmount());
+        bind(m_insertRequirement, 3, requirement.getUnit());
+        bind(m_insertRequirement, 4, requirement.getStepId());
+        bind(m_insertRequirement, 5, requirement.isOptional() ? 1L : 0L);
+
+        long id = m_insertRequirement.executeInsert();
+        requirement.setId(id);
+        requirement.clearDirty();
+        return id;
+    }
+
+    /**
+     * Inserts the image.
+     *
+     * @param image The image to insert.
+     * @return the id of the newly created image.
+     */
+    public long insert(Image image) {
+        if (image.getId() != null) {
+            throw new IllegalArgumentException("Image ID already exists.");
+        }
+
+        if (m_insertImage == null) {
+            m_insertImage = compileInsert(
+                    ImageTable.TABLE_NAME,
+                    ImageTable.COL_URI,
+                    ImageTable.COL_STEP_ID,
+                    ImageTable.COL_NAME,
+                    ImageTable.COL_SIZE,
+                    ImageTable.COL_WIDTH,
+                    ImageTable.COL_HEIGHT,
+                    ImageTable.COL_MIME_TYPE
+            );
+        }
+
+        bind(m_insertImage, 1, image.getImageURI().toString());
+        bind(m_insertImage, 2, image.getStepId());
+        bind(m_insertImage, 3, image.getName());
+        bind(m_insertImage, 4, image.getSize());
+        bind(m_insertImage, 5, (long)image.getWidth());
+        bind(m_insertImage, 6, (long)image.getHeight());
+        bind(m_insertImage, 7, image.getMimeType());
+
+        long id = m_insertImage.executeInsert();
+        image.setId(id);
+        image.clearDirty();
+        return id;
+    }
+
+    /**
+     * Releases the compiled statements.
+     */
+    public void close() {
+        SQLiteStatement[] statements = new SQLiteStatement[] {
+            m_insertTutorial,
+            m_insertStep,
+            m_insertRequirement,
+            m_insertImage
+        };
+        for (SQLiteStatement statement : statements) {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+        m_insertTutorial = null;
+        m_insertStep = null;
+        m_insertRequirement = null;
+        m_insertImage = null;
+    }
+
+    /**
+     * Compiles an insert statement for the given table and columns.
+     *
+     * @param table The table to insert into.
+     * @param columns The columns to bind, in positional order.
+     * @return the compiled statement.
+     */
+    private SQLiteStatement compileInsert(String table, String... columns) {
+        StringBuilder names = new StringBuilder();
+        StringBuilder params = new StringBuilder();
+
+        for (int i = 0; i < columns.length; i++) {
+            if (i > 0) {
+                names.append(',');
+                params.append(',');
+            }
+            names.append(columns[i]);
+            params.append('?');
+        }
+
+        return m_db.compileStatement(
+                String.format(
+                        Locale.getDefault(),
+                        "INSERT INTO %s (%s) VALUES (%s)",
+                        table,
+                        names.toString(),
+                        params.toString()
+                )
+        );
+    }
+
+    /**
+     * Binds a nullable string to the statement.
+     */
+    static void bind(SQLiteStatement statement, int index, String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Binds a nullable long to the statement.
+     */
+    static void bind(SQLiteStatement statement, int index, Long value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindLong(index, value);
+        }
+    }
+
+    /**
+     * Binds a nullable double to the statement.
+     */
+    static void bind(SQLiteStatement statement, int index, Double value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindDouble(index, value);
+        }
+    }
+}
@@ -15,6 +15,7 @@
  */
 package msindwan.handbook.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentProvider;
 import android.content.ContentValues;
 import android.content.Context;
@@ -23,9 +24,15 @@ import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.os.Build;
+import android.os.CancellationSignal;
 import android.support.annotation.NonNull;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Locale;
+
+import msindwan.handbook.data.schema.SearchTable;
 import msindwan.handbook.data.schema.TutorialTable;
 
 /**
@@ -45,12 +52,134 @@ public class DataContentProvider extends ContentProvider {
     public static final Uri TUTORIAL_URI = Uri.parse(
             "content://" + AUTHORITY + "/" + BASE_PATH + "/tutorials"
     );
+    public static final Uri TUTORIAL_SEARCH_URI = Uri.withAppendedPath(TUTORIAL_URI, "search");
+    public static final String QUERY_PARAM_SEARCH = "q";
+    public static final String QUERY_PARAM_SORT = "sort";
+    public static final String QUERY_PARAM_LIMIT = "limit";
+    public static final String QUERY_PARAM_AFTER = "after";
+    public static final String QUERY_PARAM_AFTER_ID = "after_id";
+    public static final String QUERY_PARAM_WITHIN = "within";
     private static final int TUTORIAL_URI_KEY = 0;
     private static final int TUTORIAL_ID_URI_KEY = 1;
+    private static final int TUTORIAL_SEARCH_URI_KEY = 2;
 
     static {
         URI_MATCHER.addURI(AUTHORITY, BASE_PATH + "/tutorials", TUTORIAL_URI_KEY);
         URI_MATCHER.addURI(AUTHORITY, BASE_PATH + "/tutorials/#", TUTORIAL_ID_URI_KEY);
+        URI_MATCHER.addURI(AUTHORITY, BASE_PATH + "/tutorials/search", TUTORIAL_SEARCH_URI_KEY);
+    }
+
+    /**
+     * Builds the URI for a page of tutorials. Pages are sorted by the given
+     * column, with ties broken by id, and start after the given row so they
+     * can be served from an index without skipping over the previous pages.
+     *
+     * @param sortColumn The column to sort by (the name, last modified date or view count).
+     * @param limit The maximum number of rows in the page.
+     * @param after A cursor positioned on the last row of the previous page
+     *              (null for the first page). It must include the id and sort column.
+     * @return the page URI.
+     */
+    public static Uri buildTutorialPageUri(String sortColumn, int limit, Cursor after) {
+        Uri.Builder builder = TUTORIAL_URI
+                .buildUpon()
+                .appendQueryParameter(QUERY_PARAM_SORT, sortColumn)
+                .appendQueryParameter(QUERY_PARAM_LIMIT, Integer.toString(limit));
+
+        if (after != null) {
+            builder.appendQueryParameter(
+                    QUERY_PARAM_AFTER,
+                    after.getString(after.getColumnIndexOrThrow(sortColumn))
+            ).appendQueryParameter(
+                    QUERY_PARAM_AFTER_ID,
+                    after.getString(after.getColumnIndexOrThrow(TutorialTable.COL_ID))
+            );
+        }
+        return builder.build();
+    }
+
+    /**
+     * Builds the uri of a search.
+     *
+     * @param search The search text entered by the user.
+     * @param within The ids of the tutorials to search within, e.g. the
+     *               results of a search this one extends, or null for all.
+     * @return the search uri.
+     */
+    public static Uri buildTutorialSearchUri(String search, long[] within) {
+        Uri.Builder builder = TUTORIAL_SEARCH_URI
+                .buildUpon()
+                .appendQueryParameter(QUERY_PARAM_SEARCH, search);
+
+        if (within != null) {
+            StringBuilder ids = new StringBuilder();
+            for (long id : within) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+            builder.appendQueryParameter(QUERY_PARAM_WITHIN, ids.toString());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Parses the ids of the tutorials a search is restricted to.
+     *
+     * @param within The comma separated ids, or null.
+     * @return the ids, or null if the search isn't restricted.
+     */
+    private static long[] parseIds(String within) {
+        if (within == null)
+            return null;
+        if (within.isEmpty())
+            return new long[0];
+
+        String[] tokens = within.split(",");
+        long[] ids = new long[tokens.length];
+        try {
+            for (int i = 0; i < tokens.length; i++) {
+                ids[i] = Long.parseLong(tokens[i]);
+            }
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ids: " + within, e);
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the ordering expression of a pageable sort column.
+     *
+     * @param sortColumn The column to sort by.
+     * @return the expression to order and compare by.
+     */
+    private static String getPageSortExpression(String sortColumn) {
+        switch (sortColumn) {
+            case TutorialTable.COL_NAME:
+                return TutorialTable.COL_NAME + " COLLATE LOCALIZED";
+            case TutorialTable.COL_LAST_MODIFIED:
+            case TutorialTable.COL_NUM_VIEWS:
+                return sortColumn;
+            default:
+                throw new IllegalArgumentException("Unsupported sort column: " + sortColumn);
+        }
+    }
+
+    /**
+     * Concatenates arrays of arguments, skipping null arrays.
+     *
+     * @param arrays The arrays to concatenate.
+     * @return the concatenated arguments.
+     */
+    private static String[] concat(String[]... arrays) {
+        ArrayList<String> args = new ArrayList<>();
+        for (String[] array : arrays) {
+            if (array != null) {
+                args.addAll(Arrays.asList(array));
+            }
+        }
+        return args.toArray(new String[args.size()]);
     }
 
     @Override
@@ -61,6 +190,7 @@ public class DataContentProvider extends ContentProvider {
     public String getType(@NonNull Uri uri) {
         switch (URI_MATCHER.match(uri)){
             case TUTORIAL_URI_KEY:
+            case TUTORIAL_SEARCH_URI_KEY:
                 return "vnd.android.cursor.dir/vnd.handbook.tutorials";
             case TUTORIAL_ID_URI_KEY:
                 return "vnd.android.cursor.item/vnd.handbook.tutorials";
@@ -90,15 +220,68 @@ public class DataContentProvider extends ContentProvider {
             String selection,
             String[] selectionArgs,
             String sortOrder) {
+        return query(uri, projection, selection, selectionArgs, sortOrder, null);
+    }
+
+    // The cancellable overload is only called by the framework on Jelly Bean
+    // and above; the other overload passes a null signal.
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    @Override
+    public Cursor query(
+            @NonNull Uri uri,
+            String[] projection,
+            String selection,
+            String[] selectionArgs,
+            String sortOrder,
+            CancellationSignal cancellationSignal) {
 
-        SQLiteDatabase db = DatabaseHelper.getInstance(getContext()).getWritableDatabase();
+        SQLiteDatabase db = DatabaseHelper.getInstance(getContext()).getReadableDatabase();
         SQLiteQueryBuilder qb = new SQLiteQueryBuilder();
+        String[] searchArgs = null;
+        String limit = null;
 
         // Determine how to handle the URI.
         switch (URI_MATCHER.match(uri)) {
 
             case TUTORIAL_URI_KEY:
                 qb.setTables(TutorialTable.TABLE_NAME);
+
+                String sortColumn = uri.getQueryParameter(QUERY_PARAM_SORT);
+                if (sortColumn == null) {
+                    break;
+                }
+
+                // Names are listed alphabetically; everything else lists the most
+                // recent or frequent first.
+                String sortExpression = getPageSortExpression(sortColumn);
+                boolean ascending = sortColumn.equals(TutorialTable.COL_NAME);
+                String direction = ascending ? "ASC" : "DESC";
+
+                sortOrder = String.format(
+                        Locale.getDefault(),
+                        "%s %s, %s %s",
+                        sortExpression,
+                        direction,
+                        TutorialTable.COL_ID,
+                        direction
+                );
+                limit = uri.getQueryParameter(QUERY_PARAM_LIMIT);
+
+                // Seek past the last row of the previous page. The first term bounds
+                // the index range; the second skips the rows on the page boundary.
+                String after = uri.getQueryParameter(QUERY_PARAM_AFTER);
+                String afterId = uri.getQueryParameter(QUERY_PARAM_AFTER_ID);
+                if (after != null && afterId != null) {
+                    String seek = String.format(
+                            Locale.getDefault(),
+                            "(%1$s %2$s= ? AND (%1$s %2$s ? OR %3$s %2$s ?))",
+                            sortExpression,
+                            ascending ? ">" : "<",
+                            TutorialTable.COL_ID
+                    );
+                    selection = selection == null ? seek : "(" + selection + ") AND " + seek;
+                    selectionArgs = concat(selectionArgs, new String[] { after, after, afterId });
+                }
                 break;
 
             case TUTORIAL_ID_URI_KEY:
@@ -113,6 +296,51 @@ public class DataContentProvider extends ContentProvider {
                 );
                 break;
 
+            case TUTORIAL_SEARCH_URI_KEY:
+                String search = uri.getQueryParameter(QUERY_PARAM_SEARCH);
+                String match = SearchTable.buildMatchQuery(search, null);
+                String nameMatch = SearchTable.buildMatchQuery(search, SearchTable.COL_NAME);
+
+                if (match == null) {
+                    // Nothing to search for.
+                    qb.setTables(TutorialTable.TABLE_NAME);
+                    qb.appendWhere("0");
+                    break;
+                }
+
+                // Join the tutorials with the documents that match the search and
+                // rank them by the number of hits.
+                qb.setTables(
+                        String.format(
+                                Locale.getDefault(),
+                                "%s JOIN (%s) ON %s = %s.%s",
+                                TutorialTable.TABLE_NAME,
+                                SearchTable.buildRankedMatchQuery(
+                                        parseIds(uri.getQueryParameter(QUERY_PARAM_WITHIN))
+                                ),
+                                SearchTable.COL_DOC_ID,
+                                TutorialTable.TABLE_NAME,
+                                TutorialTable.COL_ID
+                        )
+                );
+
+                // Tutorials whose names match come first.
+                sortOrder = String.format(
+                        Locale.getDefault(),
+                        "%s.%s IN (SELECT %s FROM %s WHERE %s MATCH ?) DESC, %s DESC",
+                        TutorialTable.TABLE_NAME,
+                        TutorialTable.COL_ID,
+                        SearchTable.COL_DOC_ID,
+                        SearchTable.TABLE_NAME,
+                        SearchTable.TABLE_NAME,
+                        SearchTable.COL_HITS
+                ) + (sortOrder == null || sortOrder.isEmpty() ? "" : ", " + sortOrder);
+
+                // The match arguments are bound ahead of the selection (in the
+                // joined table) and after it (in the sort order).
+                searchArgs = new String[] { match, nameMatch };
+                break;
+
             default:
                 throw new IllegalArgumentException("Unsupported URI: " + uri);
         }
@@ -121,16 +349,41 @@ public class DataContentProvider extends ContentProvider {
             sortOrder = TutorialTable.COL_NAME;
         }
 
-        // Create the cursor for the query.
-        Cursor cursor = qb.query(
-                db,
-                projection,
-                selection,
-                selectionArgs,
-                null,
-                null,
-                sortOrder
-        );
+        if (searchArgs != null) {
+            selectionArgs = concat(
+                    new String[] { searchArgs[0] },
+                    selectionArgs,
+                    new String[] { searchArgs[1] }
+            );
+        }
+
+        // Create the cursor for the query. Loaders cancel the signal when
+        // they're restarted so superseded queries stop filling their window.
+        Cursor cursor;
+        if (cancellationSignal != null) {
+            cursor = qb.query(
+                    db,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder,
+                    limit,
+                    cancellationSignal
+            );
+        } else {
+            cursor = qb.query(
+                    db,
+                    projection,
+                    selection,
+                    selectionArgs,
+                    null,
+                    null,
+                    sortOrder,
+                    limit
+            );
+        }
 
         Context context = getContext();
         if (context == null) {
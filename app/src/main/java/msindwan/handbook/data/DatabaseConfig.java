@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Build;
+
+import java.util.Locale;
+
+/**
+ * DatabaseConfig:
+ * Tunes the SQLite engine for the application database.
+ *
+ * Write-ahead logging lets the connection pool serve queries made outside of
+ * a transaction from read-only connections while a save holds the primary
+ * connection, so readers no longer wait on long writes. The remaining
+ * pragmas size the page cache and enable memory-mapped reads on the primary
+ * connection only; the pool opens its read-only connections itself, so they
+ * keep SQLite's defaults.
+ */
+@SuppressWarnings("WeakerAccess")
+public class DatabaseConfig {
+
+    // Page cache size (in KB) of the primary connection.
+    public static final int CACHE_SIZE_KB = 4 * 1024;
+
+    // Maximum number of bytes of the database file to memory map.
+    public static final long MMAP_SIZE_BYTES = 32L * 1024 * 1024;
+
+    /**
+     * Applies the configuration to the primary connection of the database.
+     *
+     * @param db The database instance to configure.
+     */
+    public static void apply(SQLiteDatabase db) {
+        if (db.isReadOnly())
+            return;
+
+        // A negative cache size is interpreted as a number of kilobytes.
+        String cacheSize = String.format(Locale.US, "PRAGMA cache_size=%d", -CACHE_SIZE_KB);
+
+        // Memory-mapped I/O is supported by the SQLite versions bundled from Lollipop.
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+            pragma(db, cacheSize, String.format(Locale.US, "PRAGMA mmap_size=%d", MMAP_SIZE_BYTES));
+        } else {
+            pragma(db, cacheSize);
+        }
+    }
+
+    /**
+     * Executes pragmas on the primary connection. Queries made outside of a
+     * transaction may run on any connection in the pool, so the pragmas are
+     * executed in one.
+     *
+     * @param db The database instance to execute against.
+     * @param statements The pragma statements.
+     */
+    private static void pragma(SQLiteDatabase db, String... statements) {
+        db.beginTransaction();
+        try {
+            for (String sql : statements) {
+                Cursor cursor = db.rawQuery(sql, null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+}
@@ -15,17 +15,26 @@
  */
 package msindwan.handbook.data;
 
+import android.annotation.TargetApi;
 import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Process;
 
+import java.util.HashMap;
+
+import msindwan.handbook.data.schema.BackfillTable;
 import msindwan.handbook.data.schema.ImageTable;
+import msindwan.handbook.data.schema.Migrations;
 import msindwan.handbook.data.schema.RequirementTable;
+import msindwan.handbook.data.schema.SearchTable;
 import msindwan.handbook.data.schema.StepTable;
 import msindwan.handbook.data.schema.TutorialTable;
+import msindwan.handbook.images.ImageStore;
 import msindwan.handbook.models.Image;
 import msindwan.handbook.models.Requirement;
 import msindwan.handbook.models.Step;
@@ -40,8 +49,13 @@ import msindwan.handbook.util.Time;
 public class DatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "handbook";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = Migrations.LATEST_VERSION;
+    private static final int BACKFILL_CHUNK_SIZE = 200;
     private static DatabaseHelper m_instance;
+    private final QueryCounter m_queryCounter;
+    private ImageStore m_imageStore;
+    private Thread m_backfillThread;
+    private Thread m_collectThread;
 
     // Table projections.
     private static final  String[] TUTORIALS_PROJECTION = new String[] {
@@ -67,7 +81,13 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     };
     private static final String[] IMAGES_PROJECTION = new String[] {
         ImageTable.COL_ID,
-        ImageTable.COL_URI
+        ImageTable.COL_URI,
+        ImageTable.COL_STEP_ID,
+        ImageTable.COL_NAME,
+        ImageTable.COL_SIZE,
+        ImageTable.COL_WIDTH,
+        ImageTable.COL_HEIGHT,
+        ImageTable.COL_MIME_TYPE
     };
 
     /**
@@ -85,13 +105,56 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
     // Private constructor to prevent instance instantiation.
     private DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, DATABASE_NAME, null);
+        m_imageStore = ImageStore.getInstance(context);
+    }
+
+    // Package constructor for isolated (e.g in-memory) databases. Tests pass a
+    // query counter; the app's database uses the default cursor factory.
+    DatabaseHelper(Context context, String name, QueryCounter queryCounter) {
+        super(context, name, queryCounter, DATABASE_VERSION);
+        m_queryCounter = queryCounter;
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            setWriteAheadLoggingEnabled(true);
+        }
+    }
+
+    /**
+     * Returns the number of queries issued against an isolated database.
+     *
+     * @return the query count, or 0 if queries aren't counted.
+     */
+    long getQueryCount() {
+        return m_queryCounter == null ? 0 : m_queryCounter.getCount();
+    }
+
+    @Override
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        DatabaseConfig.apply(db);
     }
 
     @Override
     public void onOpen(SQLiteDatabase db){
         super.onOpen(db);
         db.execSQL("PRAGMA foreign_keys=ON");
+
+        // Older platforms don't call onConfigure, so the database is
+        // configured once opened instead.
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            if (!db.isReadOnly() && !db.inTransaction()) {
+                db.enableWriteAheadLogging();
+            }
+            DatabaseConfig.apply(db);
+        }
+
+        // Resume any backfills that were scheduled by an upgrade.
+        if (!db.isReadOnly() && BackfillTable.hasPending(db)) {
+            startBackfills();
+        }
+        collectImages();
     }
 
     @Override
@@ -100,27 +163,78 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         StepTable.createTable(db);
         RequirementTable.createTable(db);
         ImageTable.createTable(db);
+        BackfillTable.createTable(db);
+        SearchTable.createTable(db);
+
+        TutorialTable.createIndexes(db);
+        StepTable.createIndexes(db);
+        RequirementTable.createIndexes(db);
+        ImageTable.createIndexes(db);
     }
 
     @Override
-    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {}
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        Migrations.upgrade(db, oldVersion, newVersion);
+    }
+
+    /**
+     * Runs the pending backfills on a background thread.
+     */
+    private synchronized void startBackfills() {
+        if (m_backfillThread != null && m_backfillThread.isAlive())
+            return;
+
+        m_backfillThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                Migrations.runBackfills(getWritableDatabase(), BACKFILL_CHUNK_SIZE);
+            }
+        }, "Backfills");
+        m_backfillThread.start();
+    }
+
+    /**
+     * Deletes the stored images that are no longer referenced on a
+     * background thread. Isolated databases don't own the image store and
+     * never collect it.
+     */
+    private synchronized void collectImages() {
+        if (m_imageStore == null || (m_collectThread != null && m_collectThread.isAlive()))
+            return;
+
+        m_collectThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                m_imageStore.collect(getReadableDatabase(), ImageStore.GRACE_PERIOD);
+            }
+        }, "ImageCollector");
+        m_collectThread.start();
+    }
 
     /**
      * Fetches the tutorial with the given id.
      *
+     * The whole graph is hydrated with a constant number of queries: one for
+     * the tutorial, one for its steps and one per child table for the
+     * requirements and images of every step. Children are stitched back onto
+     * their steps in memory.
+     *
      * @param tutorial The object to store the tutorial data in memory.
      * @param id The id of the tutorial to fetch.
      * @return true if the tutorial was found; false otherwise.
      */
     public boolean fetch(Tutorial tutorial, long id) {
-        SQLiteDatabase db = getWritableDatabase();
+        SQLiteDatabase db = getReadableDatabase();
+        String[] args = new String[] { Long.toString(id) };
 
         // Query for the specified tutorial.
         Cursor cTutorial = db.query(
                 TutorialTable.TABLE_NAME,
                 TUTORIALS_PROJECTION,
                 String.format("%s = ?", TutorialTable.COL_ID),
-                new String[] { Long.toString(id) },
+                args,
                 null,
                 null,
                 null
@@ -135,13 +249,15 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
 
         read(tutorial, cTutorial);
+        cTutorial.close();
 
         // Fetch all of its steps.
+        HashMap<Long, Step> steps = new HashMap<>();
         Cursor cSteps = db.query(
                 StepTable.TABLE_NAME,
                 STEPS_PROJECTION,
                 String.format("%s = ?", StepTable.COL_TUTORIAL_ID),
-                new String[]{Long.toString(id)},
+                args,
                 null,
                 null,
                 StepTable.COL_INDEX
@@ -154,138 +270,145 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 step.setTutorialId(id);
                 read(step, cSteps);
                 tutorial.addStep(step);
+                steps.put(step.getId(), step);
+            }
+            cSteps.close();
+        }
 
-                // Fetch all of the step requirements.
-                Cursor cRequirements = db.query(
-                        RequirementTable.TABLE_NAME,
-                        REQUIREMENTS_PROJECTION,
-                        String.format("%s = ?", RequirementTable.COL_STEP_ID),
-                        new String[]{Long.toString(step.getId())},
-                        null,
-                        null,
-                        null
-                );
-
-                if (cRequirements != null) {
-                    while (cRequirements.moveToNext()) {
-                        // Create and read each requirement.
-                        Requirement requirement = new Requirement();
-                        read(requirement, cRequirements);
-                        step.addRequirement(requirement);
-                    }
-                    cRequirements.close();
-                }
+        if (steps.isEmpty())
+            return true;
 
-                // Fetch all of the step images.
-                Cursor cImages = db.query(
-                        ImageTable.TABLE_NAME,
-                        IMAGES_PROJECTION,
-                        String.format("%s = ?", ImageTable.COL_STEP_ID),
-                        new String[]{Long.toString(step.getId())},
-                        null,
-                        null,
-                        null
-                );
-
-                if (cImages != null) {
-                    while (cImages.moveToNext()) {
-                        // Create and read each requirement.
-                        Image image = new Image();
-                        read(image, cImages);
-                        step.addImage(image);
-                    }
-                    cImages.close();
-                }
+        // Selects the children of every step in the tutorial.
+        String stepsSelection = String.format(
+                "%%s IN (SELECT %s FROM %s WHERE %s = ?)",
+                StepTable.COL_ID,
+                StepTable.TABLE_NAME,
+                StepTable.COL_TUTORIAL_ID
+        );
+
+        // Fetch the requirements for all of the steps.
+        Cursor cRequirements = db.query(
+                RequirementTable.TABLE_NAME,
+                REQUIREMENTS_PROJECTION,
+                String.format(stepsSelection, RequirementTable.COL_STEP_ID),
+                args,
+                null,
+                null,
+                RequirementTable.COL_ID
+        );
+
+        if (cRequirements != null) {
+            int stepIdColumn = cRequirements.getColumnIndex(RequirementTable.COL_STEP_ID);
+            while (cRequirements.moveToNext()) {
+                // Create and read each requirement.
+                Step step = steps.get(cRequirements.getLong(stepIdColumn));
+                Requirement requirement = new Requirement();
+                read(requirement, cRequirements);
+                step.addRequirement(requirement);
             }
-            cSteps.close();
+            cRequirements.close();
+        }
+
+        // Fetch the images for all of the steps.
+        Cursor cImages = db.query(
+                ImageTable.TABLE_NAME,
+                IMAGES_PROJECTION,
+                String.format(stepsSelection, ImageTable.COL_STEP_ID),
+                args,
+                null,
+                null,
+                ImageTable.COL_ID
+        );
+
+        if (cImages != null) {
+            int stepIdColumn = cImages.getColumnIndex(ImageTable.COL_STEP_ID);
+            while (cImages.moveToNext()) {
+                // Create and read each image.
+                Step step = steps.get(cImages.getLong(stepIdColumn));
+                Image image = new Image();
+                read(image, cImages);
+                step.addImage(image);
+            }
+            cImages.close();
         }
-        cTutorial.close();
         return true;
     }
 
     /**
-     * Inserts the tutorial into the database.
+     * Fetches the uri of the first image of a tutorial, in step order.
      *
-     * @param tutorial The tutorial to insert.
+     * @param tutorialId The id of the tutorial.
+     * @return the uri, or null if the tutorial has no images.
      */
-    public Long insert(Tutorial tutorial) {
-        SQLiteDatabase db = getWritableDatabase();
+    public Uri fetchCoverImageURI(long tutorialId) {
+        Cursor cursor = getReadableDatabase().rawQuery(
+                String.format(
+                        "SELECT i.%s FROM %s i JOIN %s s ON i.%s = s.%s"
+                        + " WHERE s.%s = ? ORDER BY s.%s, i.%s LIMIT 1",
+                        ImageTable.COL_URI,
+                        ImageTable.TABLE_NAME,
+                        StepTable.TABLE_NAME,
+                        ImageTable.COL_STEP_ID,
+                        StepTable.COL_ID,
+                        StepTable.COL_TUTORIAL_ID,
+                        StepTable.COL_INDEX,
+                        ImageTable.COL_ID
+                ),
+                new String[] {
+                    Long.toString(tutorialId)
+                }
+        );
 
-        if (tutorial.getId() != null) {
-            throw new IllegalArgumentException("Tutorial ID already exists.");
+        try {
+            return cursor.moveToFirst() ? Uri.parse(cursor.getString(0)) : null;
+        } finally {
+            cursor.close();
         }
+    }
 
-        ContentValues values = new ContentValues();
-        values.put(TutorialTable.COL_NAME, tutorial.getName());
-        values.put(TutorialTable.COL_DESCRIPTION, tutorial.getDescription());
-
-        long id = db.insert(TutorialTable.TABLE_NAME, null, values);
-
-        for(int i = 0; i < tutorial.getNumSteps(); i++) {
-            Step step = tutorial.getStep(i);
-            step.setTutorialId(id);
-            insert(step);
+    /**
+     * Inserts the tutorial into the database.
+     *
+     * @param tutorial The tutorial to insert.
+     * @return the id of the newly created tutorial.
+     */
+    public Long insert(Tutorial tutorial) {
+        BulkWriter writer = new BulkWriter(getWritableDatabase());
+        try {
+            return writer.insert(tutorial);
+        } finally {
+            writer.close();
         }
-
-        return id;
     }
 
     /**
      * Inserts the step into the database.
      *
      * @param step The step to insert.
+     * @return the id of the newly created step.
      */
     public Long insert(Step step) {
-        SQLiteDatabase db = getWritableDatabase();
-
-        if (step.getId() != null) {
-            throw new IllegalArgumentException("Step ID already exists.");
+        BulkWriter writer = new BulkWriter(getWritableDatabase());
+        try {
+            return writer.insert(step);
+        } finally {
+            writer.close();
         }
-
-        ContentValues values = new ContentValues();
-        values.put(StepTable.COL_TITLE, step.getTitle());
-        values.put(StepTable.COL_INSTRUCTIONS, step.getInstructions());
-        values.put(StepTable.COL_TUTORIAL_ID, step.getTutorialId());
-        values.put(StepTable.COL_INDEX, step.getIndex());
-
-        long id  = db.insert(StepTable.TABLE_NAME, null, values);
-        int i;
-
-        for (i = 0; i < step.getNumRequirements(); i++) {
-            Requirement requirement = step.getRequirement(i);
-            requirement.setStepId(id);
-            insert(requirement);
-        }
-
-        for (i = 0; i < step.getNumImages(); i++) {
-            Image image = step.getImage(i);
-            image.setStepId(id);
-            insert(image);
-        }
-
-        return id;
     }
 
     /**
      * Inserts the requirement into the database.
      *
      * @param requirement The requirement to insert.
+     * @return the id of the newly created requirement.
      */
     public long insert(Requirement requirement) {
-        SQLiteDatabase db = getWritableDatabase();
-
-        if (requirement.getId() != null) {
-            throw new IllegalArgumentException("Requirement ID already exists.");
+        BulkWriter writer = new BulkWriter(getWritableDatabase());
+        try {
+            return writer.insert(requirement);
+        } finally {
+            writer.close();
         }
-
-        ContentValues values = new ContentValues();
-        values.put(RequirementTable.COL_NAME, requirement.getName());
-        values.put(RequirementTable.COL_AMOUNT, requirement.getAmount());
-        values.put(RequirementTable.COL_UNIT, requirement.getUnit());
-        values.put(RequirementTable.COL_STEP_ID, requirement.getStepId());
-        values.put(RequirementTable.COL_OPTIONAL, requirement.isOptional() ? 1 : 0);
-
-        return db.insert(RequirementTable.TABLE_NAME, null, values);
     }
 
     /**
@@ -295,22 +418,21 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @return the id of the newly created image.
      */
     public long insert(Image image) {
-        SQLiteDatabase db = getWritableDatabase();
-
-        if (image.getId() != null) {
-            throw new IllegalArgumentException("Image ID already exists.");
+        BulkWriter writer = new BulkWriter(getWritableDatabase());
+        try {
+            return writer.insert(image);
+        } finally {
+            writer.close();
         }
-
-        ContentValues values = new ContentValues();
-        values.put(ImageTable.COL_URI, image.getImageURI().toString());
-        values.put(ImageTable.COL_STEP_ID, image.getStepId());
-
-        return db.insert(ImageTable.TABLE_NAME, null, values);
     }
 
     /**
      * Updates the existing tutorial.
      *
+     * Only the rows and columns that were modified since the tutorial was
+     * fetched are written. The last modified date is updated if anything
+     * in the tutorial graph changed.
+     *
      * @param tutorial The tutorial to update.
      */
     public void update(Tutorial tutorial) {
@@ -320,35 +442,56 @@ public class DatabaseHelper extends SQLiteOpenHelper {
             throw new IllegalArgumentException("Tutorial ID not set.");
         }
 
-        ContentValues values = new ContentValues();
-        values.put(TutorialTable.COL_NAME, tutorial.getName());
-        values.put(TutorialTable.COL_DESCRIPTION, tutorial.getDescription());
-        values.put(TutorialTable.COL_LAST_MODIFIED, Time.now());
-
-        db.update(
-                TutorialTable.TABLE_NAME,
-                values,
-                String.format("%s = ?", TutorialTable.COL_ID),
-                new String[] {
-                    Long.toString(tutorial.getId())
+        if (!tutorial.hasChanges())
+            return;
+
+        BulkWriter writer = new BulkWriter(db);
+        db.beginTransaction();
+
+        try {
+            for (int i = 0; i < tutorial.getNumSteps(); i++) {
+                Step step = tutorial.getStep(i);
+                step.setTutorialId(tutorial.getId());
+
+                if (step.getId() == null) {
+                    // The step does not exist, so insert it.
+                    writer.insert(step);
+                } else if (step.isDeleted()) {
+                    // The step is marked for deletion.
+                    delete(step);
+                } else {
+                    // Update the existing step.
+                    update(step, writer);
                 }
-        );
+            }
 
-        for (int i = 0; i < tutorial.getNumSteps(); i++) {
-            Step step = tutorial.getStep(i);
-            step.setTutorialId(tutorial.getId());
-
-            if (step.getId() == null) {
-                // The step does not exist, so insert it.
-                insert(step);
-            } else if (step.isDeleted()) {
-                // The step is marked for deletion.
-                delete(step);
-            } else {
-                // Update the existing step.
-                update(step);
+            ContentValues values = new ContentValues();
+            if (tutorial.isDirty(Tutorial.FIELD_NAME)) {
+                values.put(TutorialTable.COL_NAME, tutorial.getName());
+            }
+            if (tutorial.isDirty(Tutorial.FIELD_DESCRIPTION)) {
+                values.put(TutorialTable.COL_DESCRIPTION, tutorial.getDescription());
             }
+            values.put(TutorialTable.COL_LAST_MODIFIED, Time.now());
+
+            db.update(
+                    TutorialTable.TABLE_NAME,
+                    values,
+                    String.format("%s = ?", TutorialTable.COL_ID),
+                    new String[] {
+                        Long.toString(tutorial.getId())
+                    }
+            );
+
+            SearchTable.index(db, tutorial.getId());
+
+            db.setTransactionSuccessful();
+            tutorial.clearDirty();
+        } finally {
+            db.endTransaction();
+            writer.close();
         }
+        collectImages();
     }
 
     /**
@@ -357,6 +500,22 @@ public class DatabaseHelper extends SQLiteOpenHelper {
      * @param step The tutorial step to update.
      */
     public void update(Step step) {
+        BulkWriter writer = new BulkWriter(getWritableDatabase());
+        try {
+            update(step, writer);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Updates the modified columns of the step and inserts, deletes or
+     * updates its requirements and images as needed.
+     *
+     * @param step The tutorial step to update.
+     * @param writer The writer to insert new rows with.
+     */
+    private void update(Step step, BulkWriter writer) {
         SQLiteDatabase db = getWritableDatabase();
 
         if (step.getId() == null) {
@@ -364,22 +523,30 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
 
         ContentValues values = new ContentValues();
-        values.put(StepTable.COL_TITLE, step.getTitle());
-        values.put(StepTable.COL_INSTRUCTIONS, step.getInstructions());
-        values.put(StepTable.COL_TUTORIAL_ID, step.getTutorialId());
-        values.put(StepTable.COL_INDEX, step.getIndex());
-
-        String whereClause = String.format("%s = ?", StepTable.COL_ID);
-        String[] whereArgs = new String[] {
-                Long.toString(step.getId())
-        };
+        if (step.isDirty(Step.FIELD_TITLE)) {
+            values.put(StepTable.COL_TITLE, step.getTitle());
+        }
+        if (step.isDirty(Step.FIELD_INSTRUCTIONS)) {
+            values.put(StepTable.COL_INSTRUCTIONS, step.getInstructions());
+        }
+        if (step.isDirty(Step.FIELD_TUTORIAL_ID)) {
+            values.put(StepTable.COL_TUTORIAL_ID, step.getTutorialId());
+        }
+        if (step.isDirty(Step.FIELD_INDEX)) {
+            values.put(StepTable.COL_INDEX, step.getIndex());
+        }
 
-        db.update(
-                StepTable.TABLE_NAME,
-                values,
-                whereClause,
-                whereArgs
-        );
+        if (values.size() > 0) {
+            db.update(
+                    StepTable.TABLE_NAME,
+                    values,
+                    String.format("%s = ?", StepTable.COL_ID),
+                    new String[] {
+                        Long.toString(step.getId())
+                    }
+            );
+            step.clearDirty();
+        }
 
         int i;
         for (i = 0; i < step.getNumRequirements(); i++) {
@@ -388,11 +555,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
             if (requirement.getId() == null) {
                 // The requirement does not exist, so insert it.
-                insert(requirement);
+                writer.insert(requirement);
             } else if (requirement.isDeleted()) {
                 // The requirement is marked for deletion.
                 delete(requirement);
-            } else {
+            } else if (requirement.isDirty()) {
                 // Update the existing requirement.
                 update(requirement);
             }
@@ -404,11 +571,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
 
             if (image.getId() == null) {
                 // The image does not exist, so insert it.
-                insert(image);
+                writer.insert(image);
             } else if (image.isDeleted()) {
                 // The image is marked for deletion.
                 delete(image);
-            } else {
+            } else if (image.isDirty()) {
                 // Update the existing image.
                 update(image);
             }
@@ -416,7 +583,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Updates the existing requirement.
+     * Updates the modified columns of the existing requirement.
      *
      * @param requirement The requirement to update.
      */
@@ -428,11 +595,24 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
 
         ContentValues values = new ContentValues();
-        values.put(RequirementTable.COL_NAME, requirement.getName());
-        values.put(RequirementTable.COL_AMOUNT, requirement.getAmount());
-        values.put(RequirementTable.COL_UNIT, requirement.getUnit());
-        values.put(RequirementTable.COL_STEP_ID, requirement.getStepId());
-        values.put(RequirementTable.COL_OPTIONAL, requirement.isOptional() ? 1 : 0);
+        if (requirement.isDirty(Requirement.FIELD_NAME)) {
+            values.put(RequirementTable.COL_NAME, requirement.getName());
+        }
+        if (requirement.isDirty(Requirement.FIELD_AMOUNT)) {
+            values.put(RequirementTable.COL_AMOUNT, requirement.getAmount());
+        }
+        if (requirement.isDirty(Requirement.FIELD_UNIT)) {
+            values.put(RequirementTable.COL_UNIT, requirement.getUnit());
+        }
+        if (requirement.isDirty(Requirement.FIELD_STEP_ID)) {
+            values.put(RequirementTable.COL_STEP_ID, requirement.getStepId());
+        }
+        if (requirement.isDirty(Requirement.FIELD_OPTIONAL)) {
+            values.put(RequirementTable.COL_OPTIONAL, requirement.isOptional() ? 1 : 0);
+        }
+
+        if (values.size() == 0)
+            return;
 
         db.update(
             RequirementTable.TABLE_NAME,
@@ -442,10 +622,11 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 Long.toString(requirement.getId())
             }
         );
+        requirement.clearDirty();
     }
 
     /**
-     * Updates the existing image.
+     * Updates the modified columns of the existing image.
      *
      * @param image The image to update.
      */
@@ -457,17 +638,32 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         }
 
         ContentValues values = new ContentValues();
-        values.put(ImageTable.COL_URI, image.getImageURI().toString());
-        values.put(ImageTable.COL_STEP_ID, image.getStepId());
+        if (image.isDirty(Image.FIELD_URI)) {
+            values.put(ImageTable.COL_URI, image.getImageURI().toString());
+        }
+        if (image.isDirty(Image.FIELD_STEP_ID)) {
+            values.put(ImageTable.COL_STEP_ID, image.getStepId());
+        }
+        if (image.isDirty(Image.FIELD_METADATA)) {
+            values.put(ImageTable.COL_NAME, image.getName());
+            values.put(ImageTable.COL_SIZE, image.getSize());
+            values.put(ImageTable.COL_WIDTH, image.getWidth());
+            values.put(ImageTable.COL_HEIGHT, image.getHeight());
+            values.put(ImageTable.COL_MIME_TYPE, image.getMimeType());
+        }
+
+        if (values.size() == 0)
+            return;
 
         db.update(
                 ImageTable.TABLE_NAME,
                 values,
-                String.format("%s = ?", RequirementTable.COL_ID),
+                String.format("%s = ?", ImageTable.COL_ID),
                 new String[] {
                         Long.toString(image.getId())
                 }
         );
+        image.clearDirty();
     }
 
     /**
@@ -489,6 +685,8 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 Long.toString(tutorial.getId())
             }
         );
+        SearchTable.remove(db, tutorial.getId());
+        collectImages();
     }
 
     /**
@@ -568,6 +766,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 cursor.getString(cursor.getColumnIndex(TutorialTable.COL_DESCRIPTION)));
         tutorial.setNumViews(
                 cursor.getInt(cursor.getColumnIndex(TutorialTable.COL_NUM_VIEWS)));
+        tutorial.clearDirty();
     }
 
     /**
@@ -584,6 +783,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 cursor.getString(cursor.getColumnIndex(StepTable.COL_INSTRUCTIONS)));
         step.setIndex(
                 cursor.getLong(cursor.getColumnIndex(StepTable.COL_INDEX)));
+        step.clearDirty();
     }
 
     /**
@@ -602,6 +802,9 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 cursor.getString(cursor.getColumnIndex(RequirementTable.COL_UNIT)));
         requirement.setOptional(
                 cursor.getInt(cursor.getColumnIndex(RequirementTable.COL_OPTIONAL)) == 1);
+        requirement.setStepId(
+                cursor.getLong(cursor.getColumnIndex(RequirementTable.COL_STEP_ID)));
+        requirement.clearDirty();
     }
 
     /**
@@ -615,5 +818,17 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 cursor.getLong(cursor.getColumnIndex(ImageTable.COL_ID)));
         image.setImageURI(
                 Uri.parse(cursor.getString(cursor.getColumnIndex(ImageTable.COL_URI))));
+        image.setStepId(
+                cursor.getLong(cursor.getColumnIndex(ImageTable.COL_STEP_ID)));
+        image.setName(
+                cursor.getString(cursor.getColumnIndex(ImageTable.COL_NAME)));
+        image.setSize(
+                cursor.getLong(cursor.getColumnIndex(ImageTable.COL_SIZE)));
+        image.setDimensions(
+                cursor.getInt(cursor.getColumnIndex(ImageTable.COL_WIDTH)),
+                cursor.getInt(cursor.getColumnIndex(ImageTable.COL_HEIGHT)));
+        image.setMimeType(
+                cursor.getString(cursor.getColumnIndex(ImageTable.COL_MIME_TYPE)));
+        image.clearDirty();
     }
 }
@@ -0,0 +1,58 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQuery;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryCounter:
+ * A cursor factory that counts the queries issued against a database.
+ */
+class QueryCounter implements SQLiteDatabase.CursorFactory {
+
+    private final AtomicLong m_count;
+
+    // Constructor.
+    QueryCounter() {
+        m_count = new AtomicLong(0);
+    }
+
+    @Override
+    public Cursor newCursor(
+            SQLiteDatabase db,
+            SQLiteCursorDriver driver,
+            String editTable,
+            SQLiteQuery query) {
+
+        m_count.incrementAndGet();
+        return new SQLiteCursor(driver, editTable, query);
+    }
+
+    /**
+     * Getter for the number of queries issued.
+     *
+     * @return the query count.
+     */
+    long getCount() {
+        return m_count.get();
+    }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data;
+
+import android.content.Context;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+import msindwan.handbook.data.schema.TutorialTable;
+
+/**
+ * ViewCounter:
+ * Records tutorial views in memory and periodically flushes the coalesced
+ * counts to the database on a background thread.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ViewCounter {
+
+    private static final String TAG = "ViewCounter";
+    private static final long FLUSH_DELAY_MS = 5000;
+    private static ViewCounter m_instance;
+
+    private final HashMap<Long, Integer> m_pending;
+    private final Context m_context;
+    private final DatabaseHelper m_helper;
+    private final Handler m_handler;
+    private boolean m_flushScheduled;
+
+    /**
+     * Gets the singleton instance.
+     * @param context the application context.
+     *
+     * @return the view counter instance.
+     */
+    public static synchronized ViewCounter getInstance(Context context) {
+        if (m_instance == null) {
+            m_instance = new ViewCounter(context.getApplicationContext());
+        }
+        return m_instance;
+    }
+
+    // Private constructor to prevent instance instantiation.
+    private ViewCounter(Context context) {
+        this(context, DatabaseHelper.getInstance(context));
+    }
+
+    // Package constructor for isolated (e.g. in-memory) databases.
+    ViewCounter(Context context, DatabaseHelper helper) {
+        HandlerThread thread = new HandlerThread(TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+
+        m_context = context;
+        m_helper = helper;
+        m_handler = new Handler(thread.getLooper());
+        m_pending = new HashMap<>();
+        m_flushScheduled = false;
+    }
+
+    /**
+     * Records a view for the specified tutorial. The view is written to the
+     * database with the next batch.
+     *
+     * @param tutorialId The id of the tutorial that was viewed.
+     */
+    public synchronized void record(long tutorialId) {
+        Integer count = m_pending.get(tutorialId);
+        m_pending.put(tutorialId, count == null ? 1 : count + 1);
+
+        if (!m_flushScheduled) {
+            m_flushScheduled = true;
+            m_handler.postDelayed(m_flushTask, FLUSH_DELAY_MS);
+        }
+    }
+
+    /**
+     * Flushes the pending views on the background thread without waiting
+     * for the next batch.
+     */
+    public synchronized void flush() {
+        if (m_pending.isEmpty())
+            return;
+
+        m_handler.removeCallbacks(m_flushTask);
+        m_flushScheduled = true;
+        m_handler.post(m_flushTask);
+    }
+
+    /**
+     * Waits for the flushes that were already posted to finish.
+     *
+     * @throws InterruptedException if the wait is interrupted.
+     */
+    void awaitFlush() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_handler.post(new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+        latch.await();
+    }
+
+    /**
+     * Swaps out the pending views.
+     *
+     * @return the views recorded since the last flush.
+     */
+    private synchronized HashMap<Long, Integer> drain() {
+        HashMap<Long, Integer> views = new HashMap<>(m_pending);
+        m_pending.clear();
+        m_flushScheduled = false;
+        return views;
+    }
+
+    /**
+     * Puts views back into the pending set after a failed flush.
+     *
+     * @param views The views to restore.
+     */
+    private synchronized void restore(HashMap<Long, Integer> views) {
+        for (Map.Entry<Long, Integer> entry : views.entrySet()) {
+            Integer count = m_pending.get(entry.getKey());
+            m_pending.put(entry.getKey(), entry.getValue() + (count == null ? 0 : count));
+        }
+    }
+
+    /**
+     * Task that writes the pending views in a single transaction.
+     */
+    private final Runnable m_flushTask = new Runnable() {
+        @Override
+        public void run() {
+            HashMap<Long, Integer> views = drain();
+            if (views.isEmpty())
+                return;
+
+            // Opening the database may fail too (e.g. when the disk is full),
+            // so the views are restored in that case as well.
+            SQLiteDatabase db = null;
+            SQLiteStatement statement = null;
+
+            try {
+                db = m_helper.getWritableDatabase();
+                db.beginTransaction();
+                statement = db.compileStatement(
+                        String.format(
+                                Locale.getDefault(),
+                                "UPDATE %s SET %s = %s + ? WHERE %s = ?",
+                                TutorialTable.TABLE_NAME,
+                                TutorialTable.COL_NUM_VIEWS,
+                                TutorialTable.COL_NUM_VIEWS,
+                                TutorialTable.COL_ID
+                        )
+                );
+                for (Map.Entry<Long, Integer> entry : views.entrySet()) {
+                    statement.bindLong(1, entry.getValue());
+                    statement.bindLong(2, entry.getKey());
+                    statement.executeUpdateDelete();
+                }
+                db.setTransactionSuccessful();
+            } catch (SQLException e) {
+                Log.e(TAG, "Failed to flush tutorial views", e);
+                restore(views);
+                return;
+            } finally {
+                if (db != null && db.inTransaction()) {
+                    db.endTransaction();
+                }
+                if (statement != null) {
+                    statement.close();
+                }
+            }
+
+            // Refresh the dashboard lists.
+            m_context.getContentResolver().notifyChange(DataContentProvider.TUTORIAL_URI, null);
+        }
+    };
+}
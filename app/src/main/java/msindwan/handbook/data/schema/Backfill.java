@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Backfill:
+ * Defines a long-running data migration that is processed in chunks of rows
+ * ordered by id. Progress is recorded after each chunk, so a backfill that is
+ * interrupted resumes from the last completed chunk.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class Backfill {
+
+    /**
+     * Returns the unique name of the backfill used to record its progress.
+     *
+     * @return the backfill name.
+     */
+    public abstract String getName();
+
+    /**
+     * Processes the next chunk of rows.
+     *
+     * @param db The database instance to execute against.
+     * @param afterId The id of the last row processed by the previous chunk.
+     * @param limit The maximum number of rows to process.
+     * @return the id of the last row processed, or -1 if there are no rows left.
+     */
+    public abstract long run(SQLiteDatabase db, long afterId, int limit);
+}
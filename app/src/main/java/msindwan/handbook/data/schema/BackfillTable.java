@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data.schema;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+
+/**
+ * BackfillTable:
+ * Defines the table that records the progress of pending backfills.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BackfillTable {
+
+    // Table properties.
+    public static final String TABLE_NAME        = "backfills";
+    public static final String COL_NAME          = "name";
+    public static final String COL_LAST_ID       = "last_id";
+
+    /**
+     * Creates the backfills table
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createTable(SQLiteDatabase db) {
+        String CREATE_TABLE =
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE TABLE %s (",
+                        TABLE_NAME
+                ) +
+                String.format(
+                        Locale.getDefault(),
+                        "%s TEXT PRIMARY KEY,",
+                        COL_NAME
+                ) +
+                String.format(
+                        Locale.getDefault(),
+                        "%s INTEGER NOT NULL DEFAULT 0);",
+                        COL_LAST_ID
+                );
+
+        db.execSQL(CREATE_TABLE);
+    }
+
+    /**
+     * Schedules the backfill to run from the first row.
+     *
+     * @param db The database instance to execute against.
+     * @param name The name of the backfill.
+     */
+    public static void enqueue(SQLiteDatabase db, String name) {
+        ContentValues values = new ContentValues();
+        values.put(COL_NAME, name);
+        values.put(COL_LAST_ID, 0);
+        db.insertWithOnConflict(TABLE_NAME, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Checks if any backfills are pending.
+     *
+     * @param db The database instance to execute against.
+     * @return true if there are pending backfills; false otherwise.
+     */
+    public static boolean hasPending(SQLiteDatabase db) {
+        return DatabaseUtils.queryNumEntries(db, TABLE_NAME) > 0;
+    }
+
+    /**
+     * Returns the pending backfills and the last id each one processed.
+     *
+     * @param db The database instance to execute against.
+     * @return the pending backfills keyed by name.
+     */
+    public static LinkedHashMap<String, Long> getPending(SQLiteDatabase db) {
+        LinkedHashMap<String, Long> pending = new LinkedHashMap<>();
+        Cursor cursor = db.query(
+                TABLE_NAME,
+                new String[] { COL_NAME, COL_LAST_ID },
+                null,
+                null,
+                null,
+                null,
+                "rowid"
+        );
+
+        while (cursor.moveToNext()) {
+            pending.put(cursor.getString(0), cursor.getLong(1));
+        }
+        cursor.close();
+        return pending;
+    }
+
+    /**
+     * Records the progress of the backfill.
+     *
+     * @param db The database instance to execute against.
+     * @param name The name of the backfill.
+     * @param lastId The id of the last row processed.
+     */
+    public static void setProgress(SQLiteDatabase db, String name, long lastId) {
+        ContentValues values = new ContentValues();
+        values.put(COL_LAST_ID, lastId);
+        db.update(TABLE_NAME, values, String.format("%s = ?", COL_NAME), new String[] { name });
+    }
+
+    /**
+     * Removes the completed backfill.
+     *
+     * @param db The database instance to execute against.
+     * @param name The name of the backfill.
+     */
+    public static void complete(SQLiteDatabase db, String name) {
+        db.delete(TABLE_NAME, String.format("%s = ?", COL_NAME), new String[] { name });
+    }
+}
@@ -15,8 +15,10 @@
  */
 package msindwan.handbook.data.schema;
 
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 
+import java.util.HashMap;
 import java.util.Locale;
 
 /**
@@ -31,8 +33,26 @@ public class ImageTable {
     public static final String COL_ID            = "_id";
     public static final String COL_URI           = "uri";
     public static final String COL_STEP_ID       = "step_id";
+    public static final String COL_NAME          = "name";
+    public static final String COL_SIZE          = "size";
+    public static final String COL_WIDTH         = "width";
+    public static final String COL_HEIGHT        = "height";
+    public static final String COL_MIME_TYPE     = "mime_type";
     public static final int COL_URI_MAX_LENGTH   = 100;
 
+    // Metadata columns, captured when an image is added. Null for images
+    // added before they were introduced until the image is read again.
+    private static final String[][] METADATA_COLUMNS = new String[][] {
+        { COL_NAME,      "TEXT" },
+        { COL_SIZE,      "INTEGER" },
+        { COL_WIDTH,     "INTEGER" },
+        { COL_HEIGHT,    "INTEGER" },
+        { COL_MIME_TYPE, "TEXT" }
+    };
+
+    // Indexes.
+    public static final String IDX_STEP_ID       = "images_step_id_idx";
+
     /**
      * Creates the images table
      *
@@ -61,6 +81,7 @@ public class ImageTable {
                         "%s INTEGER NOT NULL,",
                         COL_STEP_ID
                 ) +
+                getMetadataColumns() +
                 String.format(
                         Locale.getDefault(),
                         "FOREIGN KEY(%s) REFERENCES %s(%s) ON DELETE CASCADE);",
@@ -71,4 +92,67 @@ public class ImageTable {
 
         db.execSQL(CREATE_TABLE);
     }
+
+    /**
+     * Builds the metadata column definitions of the create statement.
+     *
+     * @return the column definitions, each followed by a comma.
+     */
+    private static String getMetadataColumns() {
+        StringBuilder columns = new StringBuilder();
+        for (String[] column : METADATA_COLUMNS) {
+            columns.append(
+                    String.format(Locale.getDefault(), "%s %s,", column[0], column[1]));
+        }
+        return columns.toString();
+    }
+
+    /**
+     * Creates the images indexes. Images are looked up (and cascade
+     * deleted) by step.
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s);",
+                        IDX_STEP_ID,
+                        TABLE_NAME,
+                        COL_STEP_ID
+                )
+        );
+    }
+
+    /**
+     * Counts the images that reference each uri. Images that are attached to
+     * several steps share a single stored copy, which is only removed once
+     * nothing references it.
+     *
+     * @param db The database instance to execute against.
+     * @return the number of images per uri.
+     */
+    public static HashMap<String, Integer> getReferenceCounts(SQLiteDatabase db) {
+        HashMap<String, Integer> counts = new HashMap<>();
+        Cursor cursor = db.rawQuery(
+                String.format(
+                        Locale.getDefault(),
+                        "SELECT %s, COUNT(*) FROM %s GROUP BY %s;",
+                        COL_URI,
+                        TABLE_NAME,
+                        COL_URI
+                ),
+                null
+        );
+
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0), cursor.getInt(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
 }
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+/**
+ * Migration:
+ * Defines a single step that upgrades the schema to a version.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class Migration {
+
+    private static final Backfill[] NO_BACKFILLS = new Backfill[0];
+    private final int m_version;
+
+    // Constructor.
+    protected Migration(int version) {
+        m_version = version;
+    }
+
+    /**
+     * Getter for the version the migration upgrades to.
+     *
+     * @return the schema version.
+     */
+    public int getVersion() {
+        return m_version;
+    }
+
+    /**
+     * Applies the schema changes. This is run inside the upgrade transaction,
+     * so it should be limited to DDL and short statements; anything that
+     * scales with the size of the library belongs in a backfill.
+     *
+     * @param db The database instance to execute against.
+     */
+    public abstract void migrate(SQLiteDatabase db);
+
+    /**
+     * Returns the backfills to schedule once the migration has been applied.
+     *
+     * @return the backfills for the migration.
+     */
+    public Backfill[] getBackfills() {
+        return NO_BACKFILLS;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data.schema;
+
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Map;
+
+/**
+ * Migrations:
+ * Declares the ordered schema migrations and applies them on upgrade.
+ * Migrations are a frozen history, so they spell out their statements
+ * rather than calling the table classes, which describe the latest schema.
+ */
+@SuppressWarnings("WeakerAccess")
+public class Migrations {
+
+    /**
+     * Version 2: Adds indexes for foreign keys and dashboard sorting.
+     */
+    public static final Migration V2_INDEXES = new Migration(2) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_name_idx"
+                    + " ON tutorials (name COLLATE LOCALIZED, last_modified);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_last_modified_idx"
+                    + " ON tutorials (last_modified, name);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_num_views_idx"
+                    + " ON tutorials (num_views, name, last_modified);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS steps_tutorial_id_idx"
+                    + " ON steps (tutorial_id, step_index);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS requirements_step_id_idx"
+                    + " ON requirements (step_id);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS images_step_id_idx"
+                    + " ON images (step_id);");
+        }
+    };
+
+    /**
+     * Version 3: Adds the table that tracks backfill progress.
+     */
+    public static final Migration V3_BACKFILLS = new Migration(3) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE TABLE backfills ("
+                    + "name TEXT PRIMARY KEY,"
+                    + "last_id INTEGER NOT NULL DEFAULT 0);");
+        }
+    };
+
+    /**
+     * Version 4: Adds the full-text search index and indexes existing tutorials.
+     */
+    public static final Migration V4_SEARCH = new Migration(4) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("CREATE VIRTUAL TABLE tutorials_search"
+                    + " USING fts4(name, description, steps, requirements);");
+        }
+        @Override
+        public Backfill[] getBackfills() {
+            return new Backfill[] { SearchTable.BACKFILL };
+        }
+    };
+
+    /**
+     * Version 5: Rebuilds the tutorials indexes with the id as a tiebreaker so
+     * the dashboard can be paged by key.
+     */
+    public static final Migration V5_KEYSET_INDEXES = new Migration(5) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("DROP INDEX IF EXISTS tutorials_name_idx;");
+            db.execSQL("DROP INDEX IF EXISTS tutorials_last_modified_idx;");
+            db.execSQL("DROP INDEX IF EXISTS tutorials_num_views_idx;");
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_name_idx"
+                    + " ON tutorials (name COLLATE LOCALIZED, _id, last_modified);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_last_modified_idx"
+                    + " ON tutorials (last_modified, _id, name);");
+            db.execSQL("CREATE INDEX IF NOT EXISTS tutorials_num_views_idx"
+                    + " ON tutorials (num_views, _id, name, last_modified);");
+        }
+    };
+
+    /**
+     * Version 6: Adds image metadata columns so image lists don't read the
+     * images to show their names and sizes.
+     */
+    public static final Migration V6_IMAGE_METADATA = new Migration(6) {
+        @Override
+        public void migrate(SQLiteDatabase db) {
+            db.execSQL("ALTER TABLE images ADD COLUMN name TEXT;");
+            db.execSQL("ALTER TABLE images ADD COLUMN size INTEGER;");
+            db.execSQL("ALTER TABLE images ADD COLUMN width INTEGER;");
+            db.execSQL("ALTER TABLE images ADD COLUMN height INTEGER;");
+            db.execSQL("ALTER TABLE images ADD COLUMN mime_type TEXT;");
+        }
+    };
+
+    // Migrations in the order they are applied.
+    private static final Migration[] MIGRATIONS = new Migration[] {
+        V2_INDEXES,
+        V3_BACKFILLS,
+        V4_SEARCH,
+        V5_KEYSET_INDEXES,
+        V6_IMAGE_METADATA
+    };
+
+    public static final int LATEST_VERSION = MIGRATIONS[MIGRATIONS.length - 1].getVersion();
+
+    /**
+     * Applies every migration after the old version up to and including
+     * the new version, and schedules their backfills.
+     *
+     * @param db The database instance to execute against.
+     * @param oldVersion The current schema version.
+     * @param newVersion The schema version to upgrade to.
+     */
+    public static void upgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        for (Migration migration : MIGRATIONS) {
+            if (migration.getVersion() <= oldVersion || migration.getVersion() > newVersion)
+                continue;
+
+            migration.migrate(db);
+            for (Backfill backfill : migration.getBackfills()) {
+                BackfillTable.enqueue(db, backfill.getName());
+            }
+        }
+    }
+
+    /**
+     * Finds the declared backfill with the given name.
+     *
+     * @param name The name of the backfill.
+     * @return the backfill or null if not found.
+     */
+    public static Backfill findBackfill(String name) {
+        for (Migration migration : MIGRATIONS) {
+            for (Backfill backfill : migration.getBackfills()) {
+                if (backfill.getName().equals(name)) {
+                    return backfill;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Runs the pending backfills to completion. Each chunk is committed
+     * along with its progress, so the backfills resume where they left off
+     * if interrupted.
+     *
+     * @param db The database instance to execute against.
+     * @param chunkSize The number of rows to process per transaction.
+     */
+    public static void runBackfills(SQLiteDatabase db, int chunkSize) {
+        for (Map.Entry<String, Long> entry : BackfillTable.getPending(db).entrySet()) {
+            String name = entry.getKey();
+            Backfill backfill = findBackfill(name);
+            long lastId = entry.getValue();
+
+            while (true) {
+                db.beginTransaction();
+                try {
+                    lastId = backfill == null ? -1 : backfill.run(db, lastId, chunkSize);
+                    if (lastId < 0) {
+                        BackfillTable.complete(db, name);
+                    } else {
+                        BackfillTable.setProgress(db, name, lastId);
+                    }
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+
+                if (lastId < 0)
+                    break;
+            }
+        }
+    }
+}
@@ -37,6 +37,9 @@ public class RequirementTable {
     public static final int COL_NAME_MAX_LENGTH  = 100;
     public static final int COL_UNIT_MAX_LENGTH  = 25;
 
+    // Indexes.
+    public static final String IDX_STEP_ID       = "requirements_step_id_idx";
+
     /**
      * Creates the requirements table
      *
@@ -91,4 +94,22 @@ public class RequirementTable {
 
         db.execSQL(CREATE_TABLE);
     }
+
+    /**
+     * Creates the requirements indexes. Requirements are looked up (and cascade
+     * deleted) by step.
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s);",
+                        IDX_STEP_ID,
+                        TABLE_NAME,
+                        COL_STEP_ID
+                )
+        );
+    }
 }
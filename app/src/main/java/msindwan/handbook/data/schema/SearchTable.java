@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.data.schema;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.util.Locale;
+
+/**
+ * SearchTable:
+ * Defines the full-text search index for tutorials. Each tutorial is indexed
+ * as a single document (keyed by the tutorial id) containing its name and
+ * description, the titles and instructions of its steps and the names of
+ * its requirements.
+ */
+@SuppressWarnings("WeakerAccess")
+public class SearchTable {
+
+    // Table properties.
+    public static final String TABLE_NAME        = "tutorials_search";
+    public static final String COL_DOC_ID        = "docid";
+    public static final String COL_NAME          = "name";
+    public static final String COL_DESCRIPTION   = "description";
+    public static final String COL_STEPS         = "steps";
+    public static final String COL_REQUIREMENTS  = "requirements";
+
+    // The number of hits in a document, from ranked match queries.
+    public static final String COL_HITS          = "hits";
+
+    /**
+     * Creates the search table
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createTable(SQLiteDatabase db) {
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE VIRTUAL TABLE %s USING fts4(%s, %s, %s, %s);",
+                        TABLE_NAME,
+                        COL_NAME,
+                        COL_DESCRIPTION,
+                        COL_STEPS,
+                        COL_REQUIREMENTS
+                )
+        );
+    }
+
+    /**
+     * (Re)indexes the tutorial with the given id from its stored rows.
+     *
+     * @param db The database instance to execute against.
+     * @param tutorialId The id of the tutorial to index.
+     */
+    public static void index(SQLiteDatabase db, long tutorialId) {
+        String[] args = new String[] { Long.toString(tutorialId) };
+        remove(db, tutorialId);
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "INSERT INTO %s (%s, %s, %s, %s, %s) " +
+                        "SELECT t.%s, t.%s, t.%s, " +
+                        "(SELECT group_concat(s.%s || ' ' || ifnull(s.%s, ''), ' ') " +
+                            "FROM %s s WHERE s.%s = t.%s), " +
+                        "(SELECT group_concat(r.%s, ' ') " +
+                            "FROM %s r JOIN %s s ON r.%s = s.%s WHERE s.%s = t.%s) " +
+                        "FROM %s t WHERE t.%s = ?",
+                        TABLE_NAME,
+                        COL_DOC_ID,
+                        COL_NAME,
+                        COL_DESCRIPTION,
+                        COL_STEPS,
+                        COL_REQUIREMENTS,
+                        TutorialTable.COL_ID,
+                        TutorialTable.COL_NAME,
+                        TutorialTable.COL_DESCRIPTION,
+                        StepTable.COL_TITLE,
+                        StepTable.COL_INSTRUCTIONS,
+                        StepTable.TABLE_NAME,
+                        StepTable.COL_TUTORIAL_ID,
+                        TutorialTable.COL_ID,
+                        RequirementTable.COL_NAME,
+                        RequirementTable.TABLE_NAME,
+                        StepTable.TABLE_NAME,
+                        RequirementTable.COL_STEP_ID,
+                        StepTable.COL_ID,
+                        StepTable.COL_TUTORIAL_ID,
+                        TutorialTable.COL_ID,
+                        TutorialTable.TABLE_NAME,
+                        TutorialTable.COL_ID
+                ),
+                args
+        );
+    }
+
+    /**
+     * Removes the tutorial with the given id from the index.
+     *
+     * @param db The database instance to execute against.
+     * @param tutorialId The id of the tutorial to remove.
+     */
+    public static void remove(SQLiteDatabase db, long tutorialId) {
+        db.delete(
+                TABLE_NAME,
+                String.format("%s = ?", COL_DOC_ID),
+                new String[] { Long.toString(tutorialId) }
+        );
+    }
+
+    /**
+     * Converts user input into a full-text query. Every word is matched as a
+     * prefix and all words must match. Operators and punctuation are dropped
+     * so the input can't alter the query syntax.
+     *
+     * @param input The search text entered by the user.
+     * @param column The column to restrict the query to (null for all columns).
+     * @return the match expression, or null if the input has no words.
+     */
+    public static String buildMatchQuery(String input, String column) {
+        if (input == null)
+            return null;
+
+        StringBuilder query = new StringBuilder();
+        for (String token : input.split("[^\\p{L}\\p{N}]+")) {
+            if (token.isEmpty())
+                continue;
+
+            if (query.length() > 0) {
+                query.append(' ');
+            }
+            if (column != null) {
+                query.append(column).append(':');
+            }
+            query.append(foldAscii(token)).append('*');
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    /**
+     * Builds a query for the ids of the documents that match a full-text
+     * query (bound as its only argument), along with their number of hits.
+     * offsets() lists four integers per hit, so the hits are counted from
+     * the number of integers rather than the length of the list, which would
+     * favour hits late in long documents.
+     *
+     * @param docIds The documents to search within (e.g. the results of a
+     *               broader search), or null to search every document.
+     * @return the query.
+     */
+    public static String buildRankedMatchQuery(long[] docIds) {
+        // Documents outside the given ids are dropped inside the index query,
+        // before their offsets are computed or they're joined.
+        String within = "";
+        if (docIds != null) {
+            StringBuilder ids = new StringBuilder();
+            for (long id : docIds) {
+                if (ids.length() > 0) {
+                    ids.append(',');
+                }
+                ids.append(id);
+            }
+            within = docIds.length == 0
+                    ? " AND 0"
+                    : String.format(Locale.getDefault(), " AND %s IN (%s)", COL_DOC_ID, ids);
+        }
+
+        return String.format(
+                Locale.getDefault(),
+                "SELECT %1$s, (length(o) - length(replace(o, ' ', '')) + 1) / 4 AS %2$s " +
+                "FROM (SELECT %1$s, offsets(%3$s) AS o FROM %3$s WHERE %3$s MATCH ?%4$s)",
+                COL_DOC_ID,
+                COL_HITS,
+                TABLE_NAME,
+                within
+        );
+    }
+
+    /**
+     * Lower cases ASCII letters only, matching the case folding of the
+     * default tokenizer (and keeping words like OR from acting as operators).
+     *
+     * @param token The token to fold.
+     * @return the folded token.
+     */
+    private static String foldAscii(String token) {
+        char[] chars = token.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] >= 'A' && chars[i] <= 'Z') {
+                chars[i] += 'a' - 'A';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Backfill that indexes every existing tutorial.
+     */
+    public static final Backfill BACKFILL = new Backfill() {
+        @Override
+        public String getName() {
+            return TABLE_NAME;
+        }
+
+        @Override
+        public long run(SQLiteDatabase db, long afterId, int limit) {
+            Cursor cursor = db.query(
+                    TutorialTable.TABLE_NAME,
+                    new String[] { TutorialTable.COL_ID },
+                    String.format("%s > ?", TutorialTable.COL_ID),
+                    new String[] { Long.toString(afterId) },
+                    null,
+                    null,
+                    TutorialTable.COL_ID,
+                    Integer.toString(limit)
+            );
+
+            long lastId = -1;
+            while (cursor.moveToNext()) {
+                lastId = cursor.getLong(0);
+                index(db, lastId);
+            }
+            cursor.close();
+            return lastId;
+        }
+    };
+}
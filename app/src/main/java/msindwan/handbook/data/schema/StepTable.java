@@ -35,6 +35,9 @@ public class StepTable {
     public static final String COL_INDEX         = "step_index";
     public static final int COL_TITLE_MAX_LENGTH = 100;
 
+    // Indexes.
+    public static final String IDX_TUTORIAL_ID   = "steps_tutorial_id_idx";
+
     /**
      * Creates the steps table
      *
@@ -83,4 +86,23 @@ public class StepTable {
 
         db.execSQL(CREATE_TABLE);
     }
+
+    /**
+     * Creates the steps indexes. Steps are looked up (and cascade deleted)
+     * by tutorial and read in step order.
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s, %s);",
+                        IDX_TUTORIAL_ID,
+                        TABLE_NAME,
+                        COL_TUTORIAL_ID,
+                        COL_INDEX
+                )
+        );
+    }
 }
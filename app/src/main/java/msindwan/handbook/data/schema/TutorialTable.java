@@ -36,6 +36,11 @@ public class TutorialTable {
     public static final String COL_NUM_VIEWS     = "num_views";
     public static final int COL_NAME_MAX_LENGTH  = 100;
 
+    // Indexes.
+    public static final String IDX_NAME          = "tutorials_name_idx";
+    public static final String IDX_LAST_MODIFIED = "tutorials_last_modified_idx";
+    public static final String IDX_NUM_VIEWS     = "tutorials_num_views_idx";
+
     /**
      * Creates the tutorials table
      *
@@ -82,4 +87,48 @@ public class TutorialTable {
 
         db.execSQL(CREATE_TABLE);
     }
+
+    /**
+     * Creates the tutorials indexes. Each index backs the sort order of a
+     * dashboard tab, breaks ties by id so the tab can be paged by key, and
+     * covers the columns displayed in the list.
+     *
+     * @param db The database instance to execute against.
+     */
+    public static void createIndexes(SQLiteDatabase db) {
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s COLLATE LOCALIZED, %s, %s);",
+                        IDX_NAME,
+                        TABLE_NAME,
+                        COL_NAME,
+                        COL_ID,
+                        COL_LAST_MODIFIED
+                )
+        );
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s, %s, %s);",
+                        IDX_LAST_MODIFIED,
+                        TABLE_NAME,
+                        COL_LAST_MODIFIED,
+                        COL_ID,
+                        COL_NAME
+                )
+        );
+        db.execSQL(
+                String.format(
+                        Locale.getDefault(),
+                        "CREATE INDEX IF NOT EXISTS %s ON %s (%s, %s, %s, %s);",
+                        IDX_NUM_VIEWS,
+                        TABLE_NAME,
+                        COL_NUM_VIEWS,
+                        COL_ID,
+                        COL_NAME,
+                        COL_LAST_MODIFIED
+                )
+        );
+    }
 }
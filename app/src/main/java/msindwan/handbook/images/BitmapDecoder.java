@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.net.Uri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Locale;
+
+/**
+ * BitmapDecoder:
+ * Decodes images no larger than the size they're displayed at, into bitmaps
+ * taken from the bitmap pool when one fits.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BitmapDecoder {
+
+    // Private constructor to prevent instance instantiation.
+    private BitmapDecoder() {}
+
+    /**
+     * Reads the dimensions of an image without decoding its pixels.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @return the options holding the image's width, height and mime type.
+     * @throws IOException if the image cannot be read.
+     */
+    public static BitmapFactory.Options decodeBounds(ContentResolver resolver, Uri uri)
+            throws IOException {
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        decode(resolver, uri, options);
+
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            throw new IOException(
+                String.format(Locale.getDefault(), "Cannot decode image at \"%s\"", uri)
+            );
+        }
+        return options;
+    }
+
+    /**
+     * Computes the largest power of two sample size that keeps the decoded
+     * image at least as large as the requested size.
+     *
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param reqWidth The requested width.
+     * @param reqHeight The requested height.
+     * @return the sample size.
+     */
+    public static int computeSampleSize(int width, int height, int reqWidth, int reqHeight) {
+        int sampleSize = 1;
+        if (reqWidth <= 0 || reqHeight <= 0)
+            return sampleSize;
+
+        while (width / (sampleSize * 2) >= reqWidth && height / (sampleSize * 2) >= reqHeight) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Decodes an image subsampled to the smallest size that still covers the
+     * requested size.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param reqWidth The requested width.
+     * @param reqHeight The requested height.
+     * @return the decoded bitmap.
+     * @throws IOException if the image cannot be read.
+     */
+    public static Bitmap decodeSampled(
+            ContentResolver resolver,
+            Uri uri,
+            int reqWidth,
+            int reqHeight) throws IOException {
+
+        BitmapFactory.Options bounds = decodeBounds(resolver, uri);
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(
+                bounds.outWidth, bounds.outHeight, reqWidth, reqHeight);
+        BitmapPool.getInstance().prepare(options, bounds.outWidth, bounds.outHeight);
+
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException(
+                String.format(Locale.getDefault(), "Cannot decode image at \"%s\"", uri)
+            );
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes an image scaled down to fit within the given size, keeping its
+     * aspect ratio, in the bitmap pool's preferred config.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param maxWidth The width to fit within.
+     * @param maxHeight The height to fit within.
+     * @return the decoded bitmap.
+     * @throws IOException if the image cannot be read.
+     */
+    public static Bitmap decodeToFit(
+            ContentResolver resolver,
+            Uri uri,
+            int maxWidth,
+            int maxHeight) throws IOException {
+        return decodeToFit(
+                resolver, uri, maxWidth, maxHeight, BitmapPool.getInstance().getPreferredConfig());
+    }
+
+    /**
+     * Decodes an image scaled down to fit within the given size, keeping its
+     * aspect ratio. Images that already fit are decoded as is.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param maxWidth The width to fit within.
+     * @param maxHeight The height to fit within.
+     * @param config The config to decode to.
+     * @return the decoded bitmap.
+     * @throws IOException if the image cannot be read.
+     */
+    public static Bitmap decodeToFit(
+            ContentResolver resolver,
+            Uri uri,
+            int maxWidth,
+            int maxHeight,
+            Bitmap.Config config) throws IOException {
+
+        BitmapFactory.Options bounds = decodeBounds(resolver, uri);
+        float scale = Math.min(
+                1f,
+                Math.min(
+                        (float)maxWidth / bounds.outWidth,
+                        (float)maxHeight / bounds.outHeight
+                )
+        );
+        int width = Math.max(1, Math.round(bounds.outWidth * scale));
+        int height = Math.max(1, Math.round(bounds.outHeight * scale));
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = computeSampleSize(
+                bounds.outWidth, bounds.outHeight, width, height);
+        BitmapPool.getInstance().prepare(options, bounds.outWidth, bounds.outHeight, config);
+
+        Bitmap bitmap = decode(resolver, uri, options);
+        if (bitmap == null) {
+            throw new IOException(
+                String.format(Locale.getDefault(), "Cannot decode image at \"%s\"", uri)
+            );
+        }
+
+        // Sampling only scales by powers of two, so finish scaling to the exact size.
+        if (bitmap.getWidth() > width || bitmap.getHeight() > height) {
+            bitmap = draw(bitmap, new Rect(0, 0, bitmap.getWidth(), bitmap.getHeight()),
+                    width, height, config);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Decodes a thumbnail of an image, centered and cropped to the given size.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @return the thumbnail.
+     * @throws IOException if the image cannot be read.
+     */
+    public static Bitmap decodeThumbnail(
+            ContentResolver resolver,
+            Uri uri,
+            int width,
+            int height) throws IOException {
+        Bitmap bitmap = decodeSampled(resolver, uri, width, height);
+        if (bitmap.getWidth() == width && bitmap.getHeight() == height)
+            return bitmap;
+
+        // Crop the center of the image to the thumbnail's aspect ratio.
+        float scale = Math.min(
+                (float)bitmap.getWidth() / width,
+                (float)bitmap.getHeight() / height
+        );
+        int cropWidth = Math.round(width * scale);
+        int cropHeight = Math.round(height * scale);
+        int left = (bitmap.getWidth() - cropWidth) / 2;
+        int top = (bitmap.getHeight() - cropHeight) / 2;
+
+        return draw(bitmap, new Rect(left, top, left + cropWidth, top + cropHeight),
+                width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draws part of a bitmap scaled into a new one, pooling the source.
+     *
+     * @param source The bitmap to draw from.
+     * @param region The region of the source to draw.
+     * @param width The width of the new bitmap.
+     * @param height The height of the new bitmap.
+     * @param config The config of the new bitmap.
+     * @return the new bitmap.
+     */
+    private static Bitmap draw(
+            Bitmap source, Rect region, int width, int height, Bitmap.Config config) {
+        BitmapPool pool = BitmapPool.getInstance();
+
+        Bitmap bitmap = pool.get(width, height, config);
+        if (bitmap == null) {
+            bitmap = Bitmap.createBitmap(width, height, config);
+        } else {
+            bitmap.eraseColor(Color.TRANSPARENT);
+        }
+
+        new Canvas(bitmap).drawBitmap(
+                source,
+                region,
+                new Rect(0, 0, width, height),
+                new Paint(Paint.FILTER_BITMAP_FLAG)
+        );
+        pool.put(source);
+        return bitmap;
+    }
+
+    /**
+     * Decodes an image stream with the given options. If the image can't be
+     * decoded into the pooled bitmap, the bitmap is returned to the pool and
+     * the image is decoded into a new one.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param options The decode options.
+     * @return the decoded bitmap (null when only decoding bounds).
+     * @throws IOException if the image cannot be read.
+     */
+    private static Bitmap decode(
+            ContentResolver resolver,
+            Uri uri,
+            BitmapFactory.Options options) throws IOException {
+
+        Bitmap reusable = options.inBitmap;
+        Bitmap bitmap;
+        try {
+            bitmap = decodeStream(resolver, uri, options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            bitmap = decodeStream(resolver, uri, options);
+        }
+
+        if (reusable != null && bitmap != reusable) {
+            BitmapPool.getInstance().put(reusable);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Opens and decodes an image stream.
+     *
+     * @param resolver The content resolver to read from.
+     * @param uri The uri of the image.
+     * @param options The decode options.
+     * @return the decoded bitmap (null when only decoding bounds).
+     * @throws IOException if the image cannot be read.
+     */
+    private static Bitmap decodeStream(
+            ContentResolver resolver,
+            Uri uri,
+            BitmapFactory.Options options) throws IOException {
+
+        InputStream stream = resolver.openInputStream(uri);
+        if (stream == null) {
+            throw new IOException(
+                String.format(Locale.getDefault(), "File at \"%s\" not found", uri)
+            );
+        }
+
+        try {
+            return BitmapFactory.decodeStream(stream, null, options);
+        } finally {
+            stream.close();
+        }
+    }
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * BitmapPool:
+ * Holds bitmaps that are no longer displayed or cached so decodes can reuse
+ * their memory through BitmapFactory.Options.inBitmap. Bitmaps are grouped in
+ * buckets by size and reference counted: caches and views retain the bitmaps
+ * they hold, and a bitmap joins the pool once its last holder releases it.
+ */
+@SuppressWarnings("WeakerAccess")
+public class BitmapPool {
+
+    private static BitmapPool m_instance;
+
+    private final TreeMap<Integer, LinkedList<Bitmap>> m_buckets;
+    private final IdentityHashMap<Bitmap, Integer> m_references;
+    private final LinkedList<Bitmap> m_lru;
+    private final long m_maxBytes;
+    private Bitmap.Config m_preferredConfig;
+    private long m_bytes;
+    private int m_hits;
+    private int m_misses;
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the bitmap pool instance.
+     */
+    public static synchronized BitmapPool getInstance() {
+        if (m_instance == null) {
+            m_instance = new BitmapPool();
+        }
+        return m_instance;
+    }
+
+    // Private constructor to prevent instance instantiation.
+    private BitmapPool() {
+        m_buckets = new TreeMap<>();
+        m_references = new IdentityHashMap<>();
+        m_lru = new LinkedList<>();
+        m_maxBytes = MemoryGovernor.getInstance().getCacheSize(16);
+        m_preferredConfig = Bitmap.Config.ARGB_8888;
+        m_bytes = 0;
+        m_hits = 0;
+        m_misses = 0;
+    }
+
+    /**
+     * Adds a reference to a bitmap. A bitmap in the pool is taken back out.
+     *
+     * @param bitmap The bitmap to retain.
+     */
+    public synchronized void retain(Bitmap bitmap) {
+        Integer references = m_references.get(bitmap);
+        if (references == null) {
+            remove(bitmap);
+            references = 0;
+        }
+        m_references.put(bitmap, references + 1);
+    }
+
+    /**
+     * Drops a reference to a bitmap, pooling it once nothing holds it.
+     *
+     * @param bitmap The bitmap to release.
+     */
+    public synchronized void release(Bitmap bitmap) {
+        Integer references = m_references.get(bitmap);
+        if (references == null)
+            return;
+
+        if (references > 1) {
+            m_references.put(bitmap, references - 1);
+        } else {
+            m_references.remove(bitmap);
+            put(bitmap);
+        }
+    }
+
+    /**
+     * Adds a bitmap that nothing holds to the pool. Immutable bitmaps can't be
+     * decoded into and are left to the garbage collector.
+     *
+     * @param bitmap The bitmap to pool.
+     */
+    public synchronized void put(Bitmap bitmap) {
+        if (bitmap.isRecycled() || !bitmap.isMutable() || m_references.containsKey(bitmap))
+            return;
+
+        int size = getSize(bitmap);
+        if (size > m_maxBytes)
+            return;
+
+        LinkedList<Bitmap> bucket = m_buckets.get(getBucket(size));
+        if (bucket == null) {
+            bucket = new LinkedList<>();
+            m_buckets.put(getBucket(size), bucket);
+        } else if (bucket.contains(bitmap)) {
+            return;
+        }
+
+        bucket.add(bitmap);
+        m_lru.addLast(bitmap);
+        m_bytes += size;
+        trim(m_maxBytes);
+    }
+
+    /**
+     * Takes a bitmap of the given size out of the pool, reconfigured to that
+     * size when the platform allows it.
+     *
+     * @param width The width of the bitmap.
+     * @param height The height of the bitmap.
+     * @param config The bitmap config.
+     * @return the bitmap, or null if none can be reused.
+     */
+    public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+        int size = width * height * getBytesPerPixel(config);
+
+        // Reconfiguring requires KitKat; before it only bitmaps of the exact
+        // size and config can be reused.
+        boolean reconfigure = Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+        Map<Integer, LinkedList<Bitmap>> buckets = reconfigure
+                ? m_buckets.tailMap(getBucket(size))
+                : m_buckets.subMap(getBucket(size), getBucket(size) + 1);
+
+        for (LinkedList<Bitmap> bucket : buckets.values()) {
+            for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext();) {
+                Bitmap bitmap = it.next();
+                boolean fits = reconfigure
+                        ? getSize(bitmap) >= size
+                        : bitmap.getWidth() == width
+                                && bitmap.getHeight() == height
+                                && bitmap.getConfig() == config;
+                if (!fits)
+                    continue;
+
+                it.remove();
+                m_lru.remove(bitmap);
+                m_bytes -= getSize(bitmap);
+                m_hits++;
+
+                if (reconfigure) {
+                    bitmap.reconfigure(width, height, config);
+                }
+                return bitmap;
+            }
+        }
+
+        m_misses++;
+        return null;
+    }
+
+    /**
+     * Sets up decode options to decode into a pooled bitmap, if one fits.
+     * Before KitKat, only images decoded at full size can be reused.
+     *
+     * @param options The decode options, with the sample size set.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     */
+    public void prepare(BitmapFactory.Options options, int width, int height) {
+        prepare(options, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Sets up decode options to decode into a pooled bitmap of the given
+     * config, if one fits.
+     *
+     * @param options The decode options, with the sample size set.
+     * @param width The width of the image.
+     * @param height The height of the image.
+     * @param config The config to decode to.
+     */
+    public void prepare(BitmapFactory.Options options, int width, int height, Bitmap.Config config) {
+        options.inMutable = true;
+        options.inPreferredConfig = config;
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT && options.inSampleSize > 1)
+            return;
+
+        int sampleSize = Math.max(1, options.inSampleSize);
+        options.inBitmap = get(
+                (width + sampleSize - 1) / sampleSize,
+                (height + sampleSize - 1) / sampleSize,
+                config
+        );
+    }
+
+    /**
+     * Getter for the config large images are decoded to. Switches to
+     * RGB_565 under memory pressure.
+     *
+     * @return the preferred config.
+     */
+    public synchronized Bitmap.Config getPreferredConfig() {
+        return m_preferredConfig;
+    }
+
+    /**
+     * Setter for the config large images are decoded to.
+     *
+     * @param config The preferred config.
+     */
+    public synchronized void setPreferredConfig(Bitmap.Config config) {
+        m_preferredConfig = config;
+    }
+
+    /**
+     * Evicts every pooled bitmap.
+     */
+    public synchronized void evictAll() {
+        trim(0);
+    }
+
+    /**
+     * Getter for the number of requests served from the pool.
+     *
+     * @return the hit count.
+     */
+    public synchronized int getHitCount() {
+        return m_hits;
+    }
+
+    /**
+     * Getter for the number of requests the pool couldn't serve.
+     *
+     * @return the miss count.
+     */
+    public synchronized int getMissCount() {
+        return m_misses;
+    }
+
+    /**
+     * Getter for the number of bytes held by the pool.
+     *
+     * @return the size in bytes.
+     */
+    public synchronized long getSize() {
+        return m_bytes;
+    }
+
+    @Override
+    public synchronized String toString() {
+        int requests = m_hits + m_misses;
+        return String.format(
+                Locale.US,
+                "BitmapPool[size=%d,maxSize=%d,hits=%d,misses=%d,hitRate=%d%%]",
+                m_bytes,
+                m_maxBytes,
+                m_hits,
+                m_misses,
+                requests == 0 ? 0 : 100 * m_hits / requests
+        );
+    }
+
+    /**
+     * Removes a bitmap from the pool, if it's in it.
+     *
+     * @param bitmap The bitmap to remove.
+     */
+    private void remove(Bitmap bitmap) {
+        LinkedList<Bitmap> bucket = m_buckets.get(getBucket(getSize(bitmap)));
+        if (bucket != null && bucket.remove(bitmap)) {
+            m_lru.remove(bitmap);
+            m_bytes -= getSize(bitmap);
+        }
+    }
+
+    /**
+     * Drops the least recently pooled bitmaps until the pool fits.
+     *
+     * @param maxBytes The size to trim to.
+     */
+    private void trim(long maxBytes) {
+        while (m_bytes > maxBytes && !m_lru.isEmpty()) {
+            Bitmap bitmap = m_lru.removeFirst();
+            m_buckets.get(getBucket(getSize(bitmap))).remove(bitmap);
+            m_bytes -= getSize(bitmap);
+        }
+    }
+
+    /**
+     * Gets the number of bytes a bitmap's memory can hold.
+     *
+     * @param bitmap The bitmap.
+     * @return the size in bytes.
+     */
+    private static int getSize(Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+        return bitmap.getByteCount();
+    }
+
+    /**
+     * Gets the bucket of a size, the next power of two.
+     *
+     * @param size The size in bytes.
+     * @return the bucket.
+     */
+    private static int getBucket(int size) {
+        return size <= 1 ? 1 : Integer.highestOneBit(size - 1) << 1;
+    }
+
+    /**
+     * Gets the number of bytes per pixel of a config.
+     *
+     * @param config The bitmap config.
+     * @return the bytes per pixel.
+     */
+    private static int getBytesPerPixel(Bitmap.Config config) {
+        if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+            return 2;
+        } else if (config == Bitmap.Config.ALPHA_8) {
+            return 1;
+        }
+        return 4;
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+import msindwan.handbook.R;
+import msindwan.handbook.data.DatabaseHelper;
+import msindwan.handbook.models.Image;
+import msindwan.handbook.models.Step;
+import msindwan.handbook.models.Tutorial;
+
+/**
+ * CoverCache:
+ * Holds a small cover thumbnail per tutorial, taken from its first image.
+ * Covers are written to disk when a tutorial is saved, so the dashboard only
+ * reads a few kilobytes per row instead of decoding step photos. Tutorials
+ * without images get an empty cover file, so they're only looked up once.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CoverCache {
+
+    private static final String TAG = "CoverCache";
+    private static final String DIRECTORY = "covers";
+    private static final int JPEG_QUALITY = 80;
+    private static CoverCache m_instance;
+
+    private final LruCache<Long, Bitmap> m_memory;
+    private final Set<Long> m_empty;
+    private final DatabaseHelper m_helper;
+    private final ThumbnailCache m_thumbnails;
+    private final BitmapPool m_pool;
+    private final File m_directory;
+    private final int m_size;
+
+    /**
+     * Gets the singleton instance.
+     * @param context the application context.
+     *
+     * @return the cover cache instance.
+     */
+    public static synchronized CoverCache getInstance(Context context) {
+        if (m_instance == null) {
+            m_instance = new CoverCache(context.getApplicationContext());
+        }
+        return m_instance;
+    }
+
+    // Private constructor to prevent instance instantiation.
+    private CoverCache(Context context) {
+        m_empty = Collections.synchronizedSet(new HashSet<Long>());
+        m_helper = DatabaseHelper.getInstance(context);
+        m_thumbnails = ThumbnailCache.getInstance(context);
+        m_pool = BitmapPool.getInstance();
+        m_directory = new File(context.getCacheDir(), DIRECTORY);
+        m_size = context.getResources().getDimensionPixelSize(R.dimen.dashboard_cover_size);
+
+        // Covers are a few kilobytes each, so a thirty-second of the budget
+        // holds several screens of them.
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        m_memory = new LruCache<Long, Bitmap>(governor.getCacheSize(32)) {
+            @Override
+            protected int sizeOf(Long key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted, Long key, Bitmap oldValue, Bitmap newValue) {
+                m_pool.release(oldValue);
+            }
+        };
+        governor.register("covers", m_memory, ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+    }
+
+    /**
+     * Returns the cover if it's held in memory. Safe to call from the main
+     * thread. The cover is retained for the caller, who releases it to the
+     * bitmap pool once it's no longer used.
+     *
+     * @param tutorialId The id of the tutorial.
+     * @return the cover, or null if it isn't in memory.
+     */
+    public Bitmap getCached(long tutorialId) {
+        // Hold the pool's lock so the cover can't be evicted and reused
+        // before it's retained.
+        synchronized (m_pool) {
+            Bitmap cover = m_memory.get(tutorialId);
+            if (cover != null) {
+                m_pool.retain(cover);
+            }
+            return cover;
+        }
+    }
+
+    /**
+     * Checks whether a tutorial is known to have no cover. Safe to call from
+     * the main thread.
+     *
+     * @param tutorialId The id of the tutorial.
+     * @return true if the tutorial has no images.
+     */
+    public boolean isEmpty(long tutorialId) {
+        return m_empty.contains(tutorialId);
+    }
+
+    /**
+     * Returns the cover from memory, then disk, and generates it from the
+     * tutorial's first image only if neither holds it (e.g. for tutorials
+     * saved before covers were introduced). Must not be called from the
+     * main thread. The cover is retained for the caller, who releases it to
+     * the bitmap pool once it's no longer used.
+     *
+     * @param tutorialId The id of the tutorial.
+     * @return the cover, or null if the tutorial has no images.
+     * @throws IOException if the image cannot be read.
+     */
+    public Bitmap getCover(long tutorialId) throws IOException {
+        Bitmap cover = getCached(tutorialId);
+        if (cover != null || isEmpty(tutorialId))
+            return cover;
+
+        File file = getFile(tutorialId);
+        if (file.exists()) {
+            cover = readFile(file);
+            if (cover != null) {
+                m_pool.retain(cover);
+            }
+        } else {
+            cover = writeCover(tutorialId, m_helper.fetchCoverImageURI(tutorialId));
+        }
+
+        if (cover == null) {
+            m_empty.add(tutorialId);
+            return null;
+        }
+
+        // The cover is retained for the caller; retain it again for the cache.
+        synchronized (m_pool) {
+            m_pool.retain(cover);
+            m_memory.put(tutorialId, cover);
+        }
+        return cover;
+    }
+
+    /**
+     * Regenerates the cover of a saved tutorial from its first image. Must
+     * not be called from the main thread.
+     *
+     * @param tutorial The saved tutorial.
+     * @throws IOException if the image cannot be read or the cover written.
+     */
+    public void update(Tutorial tutorial) throws IOException {
+        long tutorialId = tutorial.getId();
+        remove(tutorialId);
+
+        Bitmap cover = writeCover(tutorialId, getFirstImageURI(tutorial));
+        if (cover != null) {
+            m_pool.release(cover);
+        }
+    }
+
+    /**
+     * Removes the cover of a tutorial, e.g. when it's deleted.
+     *
+     * @param tutorialId The id of the tutorial.
+     */
+    public void remove(long tutorialId) {
+        m_empty.remove(tutorialId);
+        synchronized (m_pool) {
+            m_memory.remove(tutorialId);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        getFile(tutorialId).delete();
+    }
+
+    /**
+     * Gets the uri of a tutorial's first image, in step order.
+     *
+     * @param tutorial The tutorial.
+     * @return the uri, or null if the tutorial has no images.
+     */
+    private static Uri getFirstImageURI(Tutorial tutorial) {
+        for (int i = 0; i < tutorial.getNumSteps(); i++) {
+            Step step = tutorial.getStep(i);
+            if (step.isDeleted())
+                continue;
+
+            for (int j = 0; j < step.getNumImages(); j++) {
+                Image image = step.getImage(j);
+                if (!image.isDeleted() && image.getImageURI() != null) {
+                    return image.getImageURI();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Gets the disk file of a cover.
+     *
+     * @param tutorialId The id of the tutorial.
+     * @return the cover file.
+     */
+    private File getFile(long tutorialId) {
+        return new File(m_directory, String.format(Locale.US, "%d.jpg", tutorialId));
+    }
+
+    /**
+     * Reads a cover from disk, into a pooled bitmap if one fits.
+     *
+     * @param file The cover file.
+     * @return the cover, or null if the file is an empty cover.
+     */
+    private Bitmap readFile(File file) {
+        if (file.length() == 0)
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        m_pool.prepare(options, m_size, m_size);
+        Bitmap reusable = options.inBitmap;
+
+        Bitmap cover;
+        try {
+            cover = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            cover = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (reusable != null && cover != reusable) {
+            m_pool.put(reusable);
+        }
+        return cover;
+    }
+
+    /**
+     * Generates a cover and writes it to disk, or an empty file if there's
+     * no image.
+     *
+     * @param tutorialId The id of the tutorial.
+     * @param uri The uri of the cover image, or null.
+     * @return the cover, retained for the caller, or null if there's no image.
+     * @throws IOException if the image cannot be read or the cover written.
+     */
+    private Bitmap writeCover(long tutorialId, Uri uri) throws IOException {
+        if (!m_directory.exists() && !m_directory.mkdirs()) {
+            throw new IOException("Cannot create " + m_directory);
+        }
+
+        Bitmap cover = uri != null ? m_thumbnails.getThumbnail(uri, m_size, m_size) : null;
+
+        // Write to a temporary file first so readers never see a partial cover.
+        File file = getFile(tutorialId);
+        File temp = new File(m_directory, file.getName() + "." + Thread.currentThread().getId());
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                if (cover != null) {
+                    cover.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot write cover", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+        return cover;
+    }
+}
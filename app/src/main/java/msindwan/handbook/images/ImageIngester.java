@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.webkit.MimeTypeMap;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import msindwan.handbook.models.Image;
+
+/**
+ * ImageIngester:
+ * Reads the metadata and thumbnails of newly added images in the background,
+ * several at a time, and copies each into the image store, optionally
+ * re-encoded into a compact copy. Images are added to their step as
+ * placeholders first and filled in on the main thread as each one is
+ * processed.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ImageIngester {
+
+    /**
+     * Listener:
+     * Receives ingestion results and progress on the main thread.
+     */
+    public interface Listener {
+        /**
+         * Called when an image's metadata has been filled in.
+         *
+         * @param image The ingested image.
+         * @param thumbnail The image's thumbnail, valid for the duration of the call.
+         */
+        void onImageIngested(Image image, Bitmap thumbnail);
+
+        /**
+         * Called when an image can't be read.
+         *
+         * @param image The image that failed.
+         * @param e The cause of the failure.
+         */
+        void onImageFailed(Image image, Exception e);
+
+        /**
+         * Called whenever an image is queued or processed.
+         *
+         * @param completed The number of images processed in the current batch.
+         * @param total The number of images in the current batch.
+         */
+        void onProgress(int completed, int total);
+    }
+
+    private final HashMap<Image, ImageLoader.Request> m_pending;
+    private final ThumbnailCache m_thumbnails;
+    private final ContentResolver m_resolver;
+    private final ImageLoader m_loader;
+    private final ImageStore m_store;
+    private final Listener m_listener;
+    private final int m_thumbnailSize;
+    private ImageTranscoder m_transcoder;
+    private long m_sequence;
+    private int m_completed;
+    private int m_total;
+
+    // Constructor.
+    public ImageIngester(Context context, int thumbnailSize, Listener listener) {
+        m_pending = new HashMap<>();
+        m_thumbnails = ThumbnailCache.getInstance(context);
+        m_resolver = context.getContentResolver();
+        m_loader = ImageLoader.getInstance(context);
+        m_store = ImageStore.getInstance(context);
+        m_listener = listener;
+        m_thumbnailSize = thumbnailSize;
+        m_sequence = 0;
+        m_completed = 0;
+        m_total = 0;
+    }
+
+    /**
+     * Sets the transcoder that re-encodes images before they're added.
+     *
+     * @param transcoder The transcoder to use, or null to keep the originals.
+     */
+    public void setTranscoder(ImageTranscoder transcoder) {
+        m_transcoder = transcoder;
+    }
+
+    /**
+     * Queues an image for ingestion. Must be called on the main thread.
+     *
+     * @param image The placeholder image, with its uri set.
+     */
+    public void ingest(final Image image) {
+        final Uri uri = image.getImageURI();
+
+        // The image is read into a copy so the placeholder, which the UI may be
+        // reading or saving, is only modified on the main thread.
+        final Image result = new Image();
+        final ImageTranscoder transcoder = m_transcoder;
+
+        ImageLoader.Request request = m_loader.load(
+                String.format(Locale.US, "ingest:%d:%s", m_sequence++, uri),
+                new ImageLoader.Decoder() {
+                    @Override
+                    public Bitmap decode() throws Exception {
+                        result.read(uri, m_resolver);
+                        if (transcoder != null) {
+                            transcoder.transcode(result);
+                        } else if (!m_store.contains(uri)) {
+                            result.setImageURI(m_store.put(uri, getExtension(result)));
+                        }
+                        return m_thumbnails.getThumbnail(
+                                result.getImageURI(), m_thumbnailSize, m_thumbnailSize);
+                    }
+                },
+                ImageLoader.PRIORITY_VISIBLE,
+                new ImageLoader.Callback() {
+                    @Override
+                    public void onImageLoaded(Bitmap bitmap) {
+                        m_pending.remove(image);
+                        image.setMetadata(result);
+                        m_listener.onImageIngested(image, bitmap);
+                        complete();
+                    }
+
+                    @Override
+                    public void onImageFailed(Exception e) {
+                        m_pending.remove(image);
+                        m_listener.onImageFailed(image, e);
+                        complete();
+                    }
+                }
+        );
+
+        m_pending.put(image, request);
+        m_total++;
+        m_listener.onProgress(m_completed, m_total);
+    }
+
+    /**
+     * Checks whether an image is waiting to be ingested.
+     *
+     * @param image The image to check.
+     * @return true if the image is pending.
+     */
+    public boolean isPending(Image image) {
+        return m_pending.containsKey(image);
+    }
+
+    /**
+     * Checks whether any image is waiting to be ingested.
+     *
+     * @return true if an image is pending.
+     */
+    public boolean hasPending() {
+        return !m_pending.isEmpty();
+    }
+
+    /**
+     * Stops ingesting an image, e.g. when it's removed before it's processed.
+     *
+     * @param image The image to cancel.
+     */
+    public void cancel(Image image) {
+        ImageLoader.Request request = m_pending.remove(image);
+        if (request != null) {
+            request.cancel();
+            complete();
+        }
+    }
+
+    /**
+     * Stops ingesting every pending image.
+     */
+    public void cancelAll() {
+        for (ImageLoader.Request request : m_pending.values()) {
+            request.cancel();
+        }
+        m_pending.clear();
+        m_completed = 0;
+        m_total = 0;
+    }
+
+    /**
+     * Counts a processed image and reports progress, starting a new batch
+     * once nothing is pending.
+     */
+    private void complete() {
+        m_completed++;
+        m_listener.onProgress(m_completed, m_total);
+
+        if (m_pending.isEmpty()) {
+            m_completed = 0;
+            m_total = 0;
+        }
+    }
+
+    /**
+     * Gets the file extension to store an image with.
+     *
+     * @param image The image, with its metadata read.
+     * @return the file extension.
+     */
+    private static String getExtension(Image image) {
+        String extension = MimeTypeMap.getSingleton()
+                .getExtensionFromMimeType(image.getMimeType());
+        return extension != null ? extension : "img";
+    }
+}
@@ -0,0 +1,499 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ImageLoader:
+ * Decodes images on a bounded pool of background threads. Requests are run
+ * by priority, requests for the same image share a single decode and results
+ * are delivered on the main thread as each one completes.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ImageLoader {
+
+    // Request priorities, from lowest to highest.
+    public static final int PRIORITY_PREFETCH = 0;
+    public static final int PRIORITY_NORMAL   = 1;
+    public static final int PRIORITY_VISIBLE  = 2;
+
+    private static final String TAG = "ImageLoader";
+    private static final int KEEP_ALIVE_SECONDS = 30;
+    private static ImageLoader m_instance;
+
+    /**
+     * Decoder:
+     * Produces the bitmap for a request. Runs on a background thread. Pooled
+     * bitmaps are returned retained; the loader releases them once delivered.
+     */
+    public interface Decoder {
+        Bitmap decode() throws Exception;
+    }
+
+    /**
+     * Callback:
+     * Receives the result of a request on the main thread.
+     */
+    public interface Callback {
+        /**
+         * Called when the image is decoded. Callbacks that hold on to the
+         * bitmap retain it through the bitmap pool.
+         *
+         * @param bitmap The decoded image.
+         */
+        void onImageLoaded(Bitmap bitmap);
+
+        /**
+         * Called when the image can't be decoded.
+         *
+         * @param e The cause of the failure.
+         */
+        void onImageFailed(Exception e);
+    }
+
+    /**
+     * Request:
+     * A handle to a pending request.
+     */
+    public class Request {
+
+        private final Callback m_callback;
+        private int m_priority;
+        private boolean m_cancelled;
+        private Job m_job;
+
+        // Constructor.
+        private Request(Callback callback, int priority) {
+            m_callback = callback;
+            m_priority = priority;
+            m_cancelled = false;
+        }
+
+        /**
+         * Cancels the request. Its callback won't be called, and the decode
+         * is dropped if no other request is waiting on it.
+         */
+        public void cancel() {
+            synchronized (ImageLoader.this) {
+                if (m_cancelled)
+                    return;
+
+                m_cancelled = true;
+                m_job.removeRequest(this);
+            }
+        }
+
+        /**
+         * Changes the priority of the request, e.g. when its view scrolls
+         * in or out of sight.
+         *
+         * @param priority The new priority.
+         */
+        public void setPriority(int priority) {
+            synchronized (ImageLoader.this) {
+                if (m_cancelled || m_priority == priority)
+                    return;
+
+                m_priority = priority;
+                m_job.updatePriority();
+            }
+        }
+
+        /**
+         * Getter for the cancelled flag.
+         *
+         * @return true if the request was cancelled.
+         */
+        public boolean isCancelled() {
+            return m_cancelled;
+        }
+    }
+
+    /**
+     * Job:
+     * A decode shared by every request for the same key.
+     */
+    private class Job implements Runnable, Comparable<Job> {
+
+        private final ArrayList<Request> m_requests;
+        private final Decoder m_decoder;
+        private final String m_key;
+        private final long m_sequence;
+        private int m_priority;
+        private boolean m_started;
+
+        // Constructor.
+        private Job(String key, Decoder decoder, long sequence) {
+            m_requests = new ArrayList<>();
+            m_decoder = decoder;
+            m_key = key;
+            m_sequence = sequence;
+            m_priority = -1;
+            m_started = false;
+        }
+
+        /**
+         * Adds a request to the job, raising the job's priority if needed.
+         * Must be called while holding the loader's lock.
+         *
+         * @param request The request to add.
+         */
+        private void addRequest(Request request) {
+            request.m_job = this;
+            m_requests.add(request);
+            updatePriority();
+        }
+
+        /**
+         * Removes a request from the job, dropping the job if nothing is
+         * waiting on it. Must be called while holding the loader's lock.
+         *
+         * @param request The request to remove.
+         */
+        private void removeRequest(Request request) {
+            m_requests.remove(request);
+            if (m_started)
+                return;
+
+            if (m_requests.isEmpty()) {
+                m_executor.remove(this);
+                m_jobs.remove(m_key);
+            } else {
+                updatePriority();
+            }
+        }
+
+        /**
+         * Sets the job's priority to the highest priority of its requests.
+         * Must be called while holding the loader's lock.
+         */
+        private void updatePriority() {
+            int priority = -1;
+            for (Request request : m_requests) {
+                priority = Math.max(priority, request.m_priority);
+            }
+            if (priority == m_priority || m_started)
+                return;
+
+            // Re-queue the job so the queue sees the new priority.
+            boolean queued = m_executor.remove(this);
+            m_priority = priority;
+            if (queued) {
+                m_executor.execute(this);
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            // Higher priorities first, then first come, first served.
+            if (m_priority != other.m_priority) {
+                return other.m_priority - m_priority;
+            }
+            return Long.valueOf(m_sequence).compareTo(other.m_sequence);
+        }
+
+        @Override
+        public void run() {
+            synchronized (ImageLoader.this) {
+                if (m_requests.isEmpty())
+                    return;
+                m_started = true;
+            }
+
+            Bitmap bitmap = null;
+            Exception error = null;
+            try {
+                bitmap = m_decoder.decode();
+            } catch (Exception e) {
+                error = e;
+            }
+
+            final ArrayList<Request> requests;
+            synchronized (ImageLoader.this) {
+                m_jobs.remove(m_key);
+                requests = new ArrayList<>(m_requests);
+            }
+
+            final Bitmap result = bitmap;
+            final Exception failure = error;
+            m_mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Request request : requests) {
+                        // Requests are cancelled on the main thread, so this check
+                        // can't race with the callback.
+                        if (request.isCancelled())
+                            continue;
+
+                        if (result != null) {
+                            request.m_callback.onImageLoaded(result);
+                        } else {
+                            request.m_callback.onImageFailed(failure);
+                        }
+                    }
+
+                    // Drop the decoder's reference now that callbacks have retained
+                    // the bitmap if they need it.
+                    if (result != null) {
+                        m_pool.release(result);
+                    }
+                }
+            });
+        }
+    }
+
+    private final HashMap<String, Job> m_jobs;
+    private final ThreadPoolExecutor m_executor;
+    private final Handler m_mainHandler;
+    private final LruCache<String, Bitmap> m_bitmaps;
+    private final ThumbnailCache m_thumbnails;
+    private final BitmapPool m_pool;
+    private final ContentResolver m_resolver;
+    private long m_sequence;
+
+    /**
+     * Gets the singleton instance.
+     * @param context the application context.
+     *
+     * @return the image loader instance.
+     */
+    public static synchronized ImageLoader getInstance(Context context) {
+        if (m_instance == null) {
+            m_instance = new ImageLoader(context.getApplicationContext());
+        }
+        return m_instance;
+    }
+
+    // Private constructor to prevent instance instantiation.
+    private ImageLoader(Context context) {
+        int numThreads = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+        m_jobs = new HashMap<>();
+        m_mainHandler = new Handler(Looper.getMainLooper());
+        m_thumbnails = ThumbnailCache.getInstance(context);
+        m_pool = BitmapPool.getInstance();
+
+        // Holds recently displayed and prefetched images so pages that are
+        // recreated, or were prefetched, show without decoding.
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        m_bitmaps = new LruCache<String, Bitmap>(governor.getCacheSize(8)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                m_pool.release(oldValue);
+            }
+        };
+        governor.register("images", m_bitmaps, ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+        m_resolver = context.getContentResolver();
+        m_sequence = 0;
+        m_executor = new ThreadPoolExecutor(
+                numThreads,
+                numThreads,
+                KEEP_ALIVE_SECONDS,
+                TimeUnit.SECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger m_count = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, TAG + "-" + m_count.incrementAndGet());
+                    }
+                }
+        );
+        m_executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Requests a bitmap. If a request with the same key is in flight, the
+     * request joins it rather than decoding again.
+     *
+     * @param key Identifies the bitmap the decoder produces.
+     * @param decoder Produces the bitmap.
+     * @param priority The priority of the request.
+     * @param callback Receives the result on the main thread.
+     * @return the request handle.
+     */
+    public synchronized Request load(String key, Decoder decoder, int priority, Callback callback) {
+        Request request = new Request(callback, priority);
+        enqueue(key, decoder, request);
+        return request;
+    }
+
+    /**
+     * Requests an image thumbnail through the thumbnail cache.
+     *
+     * @param uri The uri of the image.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @param priority The priority of the request.
+     * @param callback Receives the result on the main thread.
+     * @return the request handle.
+     */
+    public Request loadThumbnail(
+            final Uri uri,
+            final int width,
+            final int height,
+            int priority,
+            Callback callback) {
+        return load(
+                String.format(Locale.US, "thumbnail:%s@%dx%d", uri, width, height),
+                new Decoder() {
+                    @Override
+                    public Bitmap decode() throws Exception {
+                        return m_thumbnails.getThumbnail(uri, width, height);
+                    }
+                },
+                priority,
+                callback
+        );
+    }
+
+    /**
+     * Requests an image scaled down to fit within the given size.
+     *
+     * @param uri The uri of the image.
+     * @param width The width to fit within.
+     * @param height The height to fit within.
+     * @param priority The priority of the request.
+     * @param callback Receives the result on the main thread.
+     * @return the request handle.
+     */
+    public Request loadToFit(
+            final Uri uri,
+            final int width,
+            final int height,
+            int priority,
+            Callback callback) {
+        final String key = getFitKey(uri, width, height);
+        return load(
+                key,
+                new Decoder() {
+                    @Override
+                    public Bitmap decode() throws Exception {
+                        Bitmap bitmap = getCached(key);
+                        if (bitmap == null) {
+                            bitmap = BitmapDecoder.decodeToFit(m_resolver, uri, width, height);
+
+                            // Retain the image once for the cache and once for delivery.
+                            synchronized (m_pool) {
+                                m_pool.retain(bitmap);
+                                m_pool.retain(bitmap);
+                                m_bitmaps.put(key, bitmap);
+                            }
+                        }
+                        return bitmap;
+                    }
+                },
+                priority,
+                callback
+        );
+    }
+
+    /**
+     * Returns an image scaled to fit within the given size if it's held in
+     * memory. Safe to call from the main thread. The image is retained for
+     * the caller, who releases it to the bitmap pool once it's no longer used.
+     *
+     * @param uri The uri of the image.
+     * @param width The width to fit within.
+     * @param height The height to fit within.
+     * @return the image, or null if it isn't in memory.
+     */
+    public Bitmap getCachedToFit(Uri uri, int width, int height) {
+        return getCached(getFitKey(uri, width, height));
+    }
+
+    /**
+     * Returns a cached image, retained for the caller.
+     *
+     * @param key The key of the image.
+     * @return the image, or null if it isn't in memory.
+     */
+    private Bitmap getCached(String key) {
+        // Hold the pool's lock so the image can't be evicted and reused
+        // before it's retained.
+        synchronized (m_pool) {
+            Bitmap bitmap = m_bitmaps.get(key);
+            if (bitmap != null) {
+                m_pool.retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Builds the key of an image scaled to fit within the given size.
+     *
+     * @param uri The uri of the image.
+     * @param width The width to fit within.
+     * @param height The height to fit within.
+     * @return the key.
+     */
+    private static String getFitKey(Uri uri, int width, int height) {
+        return String.format(Locale.US, "fit:%s@%dx%d", uri, width, height);
+    }
+
+    /**
+     * Adds a request to the job for its key, creating and queueing the job
+     * if there isn't one in flight. Must be called while holding the lock.
+     *
+     * @param key The key of the job.
+     * @param decoder Produces the bitmap if a new job is created.
+     * @param request The request to add.
+     */
+    private void enqueue(String key, Decoder decoder, Request request) {
+        Job job = m_jobs.get(key);
+        if (job == null) {
+            job = new Job(key, decoder, m_sequence++);
+            m_jobs.put(key, job);
+            job.addRequest(request);
+            m_executor.execute(job);
+        } else {
+            job.addRequest(request);
+        }
+    }
+}
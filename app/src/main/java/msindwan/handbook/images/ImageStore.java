@@ -0,0 +1,341 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+import msindwan.handbook.data.schema.ImageTable;
+
+/**
+ * ImageStore:
+ * Keeps local copies of images in app storage, named by the hash of their
+ * contents. Identical images are stored once, however many steps they're
+ * attached to, and a copy is removed once no row in the images table
+ * references it.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ImageStore {
+
+    private static final String TAG = "ImageStore";
+    private static final String DIRECTORY = "images";
+    private static final String PENDING_DIRECTORY = "pending";
+    private static final String DIGEST = "SHA-1";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // Unreferenced copies (and temporary files) are kept for a while, since
+    // images are stored when they're added but only referenced once the
+    // tutorial is saved, and a photo may still be being captured.
+    public static final long GRACE_PERIOD = TimeUnit.DAYS.toMillis(1);
+
+    private static ImageStore m_instance;
+
+    private final ContentResolver m_resolver;
+    private final File m_directory;
+    private final File m_pending;
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @param context The application context.
+     * @return the image store instance.
+     */
+    public static synchronized ImageStore getInstance(Context context) {
+        if (m_instance == null) {
+            Context application = context.getApplicationContext();
+            m_instance = new ImageStore(
+                    application.getContentResolver(),
+                    new File(application.getFilesDir(), DIRECTORY)
+            );
+        }
+        return m_instance;
+    }
+
+    // Package constructor for isolated (e.g. temporary) directories.
+    ImageStore(ContentResolver resolver, File directory) {
+        m_resolver = resolver;
+        m_directory = directory;
+        m_pending = new File(directory, PENDING_DIRECTORY);
+    }
+
+    /**
+     * Creates a temporary file in the store to write an image into before
+     * it's added with {@link #put(File, String)}.
+     *
+     * @return the temporary file.
+     * @throws IOException if the store cannot be created.
+     */
+    public File createTempFile() throws IOException {
+        return createPendingFile(UUID.randomUUID().toString());
+    }
+
+    /**
+     * Creates a temporary file for the camera to write a photo into. Unlike
+     * other temporary files, it's named like a photo, since the name is kept
+     * as the image's name.
+     *
+     * @return the temporary file.
+     * @throws IOException if the store cannot be created.
+     */
+    public File createCaptureFile() throws IOException {
+        return createPendingFile(String.format(
+                Locale.US, "IMG_%1$tY%1$tm%1$td_%1$tH%1$tM%1$tS.jpg", new Date()));
+    }
+
+    /**
+     * Copies an image into the store. Temporary files of the store are moved
+     * rather than copied. Must not be called from the main thread.
+     *
+     * @param uri The uri of the image.
+     * @param extension The file extension of the stored copy.
+     * @return the uri of the stored copy.
+     * @throws IOException if the image cannot be read or the copy written.
+     */
+    public Uri put(Uri uri, String extension) throws IOException {
+        if (isPending(uri)) {
+            return put(new File(uri.getPath()), extension);
+        }
+
+        InputStream in = m_resolver.openInputStream(uri);
+        if (in == null) {
+            throw new IOException(
+                String.format(Locale.getDefault(), "File at \"%s\" not found", uri)
+            );
+        }
+
+        try {
+            return put(in, extension);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Copies a stream into the store. Must not be called from the main thread.
+     *
+     * @param in The stream to copy, left open.
+     * @param extension The file extension of the stored copy.
+     * @return the uri of the stored copy.
+     * @throws IOException if the stream cannot be read or the copy written.
+     */
+    public Uri put(InputStream in, String extension) throws IOException {
+        File temp = createTempFile();
+        try {
+            ReadableByteChannel source = Channels.newChannel(in);
+            FileChannel target = new FileOutputStream(temp).getChannel();
+            try {
+                long position = 0;
+                long count;
+                while ((count = target.transferFrom(source, position, BUFFER_SIZE)) > 0) {
+                    position += count;
+                }
+            } finally {
+                target.close();
+            }
+            return put(temp, extension);
+        } finally {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /**
+     * Moves a fully written temporary file into the store under the hash of
+     * its contents. If the store already holds the same contents, the
+     * temporary file is discarded and the existing copy is returned.
+     *
+     * @param temp The temporary file, from {@link #createTempFile()}.
+     * @param extension The file extension of the stored copy.
+     * @return the uri of the stored copy.
+     * @throws IOException if the file cannot be read or moved.
+     */
+    public Uri put(File temp, String extension) throws IOException {
+        File file = new File(m_directory, String.format(
+                Locale.US, "%s.%s", hash(temp), extension));
+
+        synchronized (this) {
+            if (file.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            } else if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+
+            // Touch the copy so a duplicate of an unreferenced image isn't
+            // collected before it's saved.
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return Uri.fromFile(file);
+    }
+
+    /**
+     * Deletes a temporary file of the store once it's no longer needed, e.g.
+     * a photo that was re-encoded into a separate copy.
+     *
+     * @param uri The uri of the file. Other uris are ignored.
+     */
+    public void discard(Uri uri) {
+        if (isPending(uri)) {
+            //noinspection ResultOfMethodCallIgnored
+            new File(uri.getPath()).delete();
+        }
+    }
+
+    /**
+     * Checks whether a uri points at a copy in the store.
+     *
+     * @param uri The uri to check.
+     * @return true if the uri is a stored copy.
+     */
+    public boolean contains(Uri uri) {
+        return isIn(uri, m_directory);
+    }
+
+    /**
+     * Checks whether a uri points at a temporary file of the store.
+     *
+     * @param uri The uri to check.
+     * @return true if the uri is a temporary file.
+     */
+    public boolean isPending(Uri uri) {
+        return isIn(uri, m_pending);
+    }
+
+    /**
+     * Deletes the copies (and abandoned temporary files) that no image
+     * references and that are older than the grace period. Must not be
+     * called from the main thread.
+     *
+     * @param db The database instance to count references against.
+     * @param gracePeriod The minimum age of a deleted file, in milliseconds.
+     * @return the number of files deleted.
+     */
+    public synchronized int collect(SQLiteDatabase db, long gracePeriod) {
+        File[] files = m_directory.listFiles();
+        if (files == null)
+            return 0;
+
+        File[] pending = m_pending.listFiles();
+        if (pending != null) {
+            File[] all = new File[files.length + pending.length];
+            System.arraycopy(files, 0, all, 0, files.length);
+            System.arraycopy(pending, 0, all, files.length, pending.length);
+            files = all;
+        }
+
+        HashMap<String, Integer> references = ImageTable.getReferenceCounts(db);
+        long cutoff = System.currentTimeMillis() - gracePeriod;
+        int deleted = 0;
+
+        for (File file : files) {
+            if (file.isDirectory()
+                    || file.lastModified() > cutoff
+                    || references.containsKey(Uri.fromFile(file).toString()))
+                continue;
+
+            if (file.delete()) {
+                deleted++;
+            } else {
+                Log.w(TAG, "Cannot delete " + file);
+            }
+        }
+        return deleted;
+    }
+
+    /**
+     * Creates a named temporary file.
+     *
+     * @param name The name of the file.
+     * @return the temporary file.
+     * @throws IOException if the store cannot be created.
+     */
+    private File createPendingFile(String name) throws IOException {
+        if (!m_pending.exists() && !m_pending.mkdirs()) {
+            throw new IOException("Cannot create " + m_pending);
+        }
+        return new File(m_pending, name);
+    }
+
+    /**
+     * Checks whether a uri points at a file directly in a directory.
+     *
+     * @param uri The uri to check.
+     * @param directory The directory.
+     * @return true if the file is in the directory.
+     */
+    private static boolean isIn(Uri uri, File directory) {
+        if (uri == null || !ContentResolver.SCHEME_FILE.equals(uri.getScheme()))
+            return false;
+
+        File parent = new File(uri.getPath()).getParentFile();
+        return parent != null && parent.equals(directory);
+    }
+
+    /**
+     * Hashes the contents of a file.
+     *
+     * @param file The file to hash.
+     * @return the hex encoded hash.
+     * @throws IOException if the file cannot be read.
+     */
+    private static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(DIGEST);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+
+        FileChannel channel = new FileInputStream(file).getChannel();
+        try {
+            ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+            while (channel.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            channel.close();
+        }
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format(Locale.US, "%02x", b));
+        }
+        return hex.toString();
+    }
+}
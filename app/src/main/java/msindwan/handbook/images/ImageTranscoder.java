@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.os.Build;
+import android.support.media.ExifInterface;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import msindwan.handbook.models.Image;
+
+/**
+ * ImageTranscoder:
+ * Re-encodes added images into the image store, scaled down to a maximum size
+ * and rotated upright, so they're decoded quickly wherever they're shown and stay
+ * readable after the picker's permission to the original expires.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ImageTranscoder {
+
+    private static final String TAG = "ImageTranscoder";
+    private static final String MIME_JPEG = "image/jpeg";
+    private static final int QUALITY = 85;
+
+    private final ContentResolver m_resolver;
+    private final ImageStore m_store;
+    private final int m_maxDimension;
+
+    // Constructor.
+    public ImageTranscoder(Context context, int maxDimension) {
+        m_resolver = context.getContentResolver();
+        m_store = ImageStore.getInstance(context);
+        m_maxDimension = maxDimension;
+    }
+
+    /**
+     * Writes a compact copy of an image and points the image at it. Must not
+     * be called from the main thread.
+     *
+     * @param image The image to transcode, with its metadata read.
+     * @throws IOException if the image cannot be read or the copy written.
+     */
+    public void transcode(Image image) throws IOException {
+        Uri uri = image.getImageURI();
+        int orientation = readOrientation(uri);
+        boolean fits = image.getWidth() <= m_maxDimension && image.getHeight() <= m_maxDimension;
+
+        // JPEGs that are already small and upright are copied as is, since
+        // re-encoding would only lose quality.
+        if (fits && orientation == ExifInterface.ORIENTATION_NORMAL
+                && MIME_JPEG.equals(image.getMimeType())) {
+            setCopy(image, m_store.put(uri, "jpg"), image.getWidth(), image.getHeight(), MIME_JPEG);
+            return;
+        }
+
+        BitmapPool pool = BitmapPool.getInstance();
+        // Copies are kept, so they're always decoded at full quality.
+        Bitmap bitmap = BitmapDecoder.decodeToFit(
+                m_resolver, uri, m_maxDimension, m_maxDimension, Bitmap.Config.ARGB_8888);
+
+        Matrix matrix = getOrientationMatrix(orientation);
+        if (!matrix.isIdentity()) {
+            Bitmap rotated = Bitmap.createBitmap(
+                    bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+            if (rotated != bitmap) {
+                pool.put(bitmap);
+            }
+            bitmap = rotated;
+        }
+
+        // Photos are stored as JPEGs, which decode fastest and can be decoded
+        // in tiles. Images with transparency are kept lossless where WebP
+        // with alpha can't be decoded.
+        Bitmap.CompressFormat format;
+        String mimeType;
+        String extension;
+        if (!bitmap.hasAlpha()) {
+            format = Bitmap.CompressFormat.JPEG;
+            mimeType = MIME_JPEG;
+            extension = "jpg";
+        } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            format = Bitmap.CompressFormat.WEBP;
+            mimeType = "image/webp";
+            extension = "webp";
+        } else {
+            format = Bitmap.CompressFormat.PNG;
+            mimeType = "image/png";
+            extension = "png";
+        }
+
+        try {
+            File temp = m_store.createTempFile();
+            try {
+                write(bitmap, format, temp);
+                setCopy(image, m_store.put(temp, extension),
+                        bitmap.getWidth(), bitmap.getHeight(), mimeType);
+                m_store.discard(uri);
+            } finally {
+                //noinspection ResultOfMethodCallIgnored
+                temp.delete();
+            }
+        } finally {
+            pool.put(bitmap);
+        }
+    }
+
+    /**
+     * Points an image at its compact copy. The image keeps its original name.
+     *
+     * @param image The image to update.
+     * @param uri The uri of the copy.
+     * @param width The width of the copy.
+     * @param height The height of the copy.
+     * @param mimeType The mime type of the copy.
+     */
+    private static void setCopy(Image image, Uri uri, int width, int height, String mimeType) {
+        image.setImageURI(uri);
+        image.setSize(new File(uri.getPath()).length());
+        image.setDimensions(width, height);
+        image.setMimeType(mimeType);
+    }
+
+    /**
+     * Reads the EXIF orientation of an image.
+     *
+     * @param uri The uri of the image.
+     * @return the orientation, or ORIENTATION_NORMAL if it isn't known.
+     */
+    private int readOrientation(Uri uri) {
+        try {
+            InputStream stream = m_resolver.openInputStream(uri);
+            if (stream == null)
+                return ExifInterface.ORIENTATION_NORMAL;
+
+            try {
+                return new ExifInterface(stream).getAttributeInt(
+                        ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+            } finally {
+                stream.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read orientation of " + uri, e);
+            return ExifInterface.ORIENTATION_NORMAL;
+        }
+    }
+
+    /**
+     * Builds the transformation that turns an image with the given EXIF
+     * orientation upright.
+     *
+     * @param orientation The EXIF orientation.
+     * @return the transformation.
+     */
+    private static Matrix getOrientationMatrix(int orientation) {
+        Matrix matrix = new Matrix();
+        switch (orientation) {
+            case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+                matrix.setScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_180:
+                matrix.setRotate(180);
+                break;
+            case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+                matrix.setScale(1, -1);
+                break;
+            case ExifInterface.ORIENTATION_TRANSPOSE:
+                matrix.setRotate(90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_90:
+                matrix.setRotate(90);
+                break;
+            case ExifInterface.ORIENTATION_TRANSVERSE:
+                matrix.setRotate(-90);
+                matrix.postScale(-1, 1);
+                break;
+            case ExifInterface.ORIENTATION_ROTATE_270:
+                matrix.setRotate(-90);
+                break;
+        }
+        return matrix;
+    }
+
+    /**
+     * Encodes a bitmap into a file.
+     *
+     * @param bitmap The bitmap to encode.
+     * @param format The format to encode with.
+     * @param file The file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void write(Bitmap bitmap, Bitmap.CompressFormat format, File file)
+            throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            if (!bitmap.compress(format, QUALITY, out)) {
+                throw new IOException("Cannot encode " + file);
+            }
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.app.ActivityManager;
+import android.app.Application;
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.graphics.Bitmap;
+import android.support.v4.app.ActivityManagerCompat;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * MemoryGovernor:
+ * Sizes the bitmap caches from the memory class of the device and sheds them
+ * as the system reports memory pressure. Caches register themselves with the
+ * trim level at which they're evicted; bitmaps that are cheap to decode again
+ * go first. Under heavy pressure while the app is visible, large images are
+ * decoded as RGB_565 until the app is next hidden.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MemoryGovernor implements ComponentCallbacks2 {
+
+    /**
+     * Cache:
+     * A registered cache and the trim level it's evicted at.
+     */
+    private static class Cache {
+
+        private final String m_name;
+        private final LruCache<?, Bitmap> m_cache;
+        private final int m_trimLevel;
+
+        // Constructor.
+        private Cache(String name, LruCache<?, Bitmap> cache, int trimLevel) {
+            m_name = name;
+            m_cache = cache;
+            m_trimLevel = trimLevel;
+        }
+    }
+
+    private static final String TAG = "MemoryGovernor";
+    private static MemoryGovernor m_instance;
+
+    private final ArrayList<Cache> m_caches;
+    private long m_budget;
+
+    /**
+     * Gets the singleton instance.
+     *
+     * @return the memory governor instance.
+     */
+    public static synchronized MemoryGovernor getInstance() {
+        if (m_instance == null) {
+            m_instance = new MemoryGovernor();
+        }
+        return m_instance;
+    }
+
+    // Package constructor for isolated (e.g. test) governors.
+    MemoryGovernor() {
+        m_caches = new ArrayList<>();
+        m_budget = Runtime.getRuntime().maxMemory();
+    }
+
+    /**
+     * Sizes caches for the device and starts listening for memory pressure.
+     * Called once when the application is created, before any cache is.
+     *
+     * @param application The application.
+     */
+    public synchronized void attach(Application application) {
+        ActivityManager activityManager =
+                (ActivityManager)application.getSystemService(Context.ACTIVITY_SERVICE);
+
+        // The memory class is what the app is expected to stay within, which
+        // is less than the heap limit on some devices.
+        m_budget = Math.min(
+                activityManager.getMemoryClass() * 1024L * 1024L,
+                Runtime.getRuntime().maxMemory()
+        );
+        if (ActivityManagerCompat.isLowRamDevice(activityManager)) {
+            m_budget /= 2;
+        }
+        application.registerComponentCallbacks(this);
+    }
+
+    /**
+     * Gets the size of a cache that holds a share of the memory budget.
+     *
+     * @param share The fraction of the budget, e.g. 8 for an eighth.
+     * @return the cache size in bytes.
+     */
+    public synchronized int getCacheSize(int share) {
+        return (int)Math.min(m_budget / share, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Registers a cache to be evicted under memory pressure. The cache must
+     * release its bitmaps to the bitmap pool as they're removed.
+     *
+     * @param name The name of the cache, for diagnostics.
+     * @param cache The cache.
+     * @param trimLevel The lowest trim level the cache is evicted at.
+     */
+    public synchronized void register(String name, LruCache<?, Bitmap> cache, int trimLevel) {
+        m_caches.add(new Cache(name, cache, trimLevel));
+    }
+
+    /**
+     * Stops evicting a registered cache.
+     *
+     * @param cache The cache.
+     */
+    public synchronized void unregister(LruCache<?, Bitmap> cache) {
+        for (int i = m_caches.size() - 1; i >= 0; i--) {
+            if (m_caches.get(i).m_cache == cache) {
+                m_caches.remove(i);
+            }
+        }
+    }
+
+    /**
+     * Gets the number of bytes held by the registered caches and the pool.
+     *
+     * @return the occupancy in bytes.
+     */
+    public synchronized long getOccupancy() {
+        long bytes = BitmapPool.getInstance().getSize();
+        for (Cache cache : m_caches) {
+            bytes += cache.m_cache.size();
+        }
+        return bytes;
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        BitmapPool pool = BitmapPool.getInstance();
+
+        if (level >= TRIM_MEMORY_UI_HIDDEN) {
+            // Everything visible is decoded again when the app returns, so
+            // it can go back to full quality.
+            pool.setPreferredConfig(Bitmap.Config.ARGB_8888);
+        } else if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            pool.setPreferredConfig(Bitmap.Config.RGB_565);
+        }
+
+        synchronized (this) {
+            // Hold the pool's lock so evicted bitmaps aren't retained midway.
+            synchronized (pool) {
+                for (Cache cache : m_caches) {
+                    if (level >= cache.m_trimLevel) {
+                        cache.m_cache.evictAll();
+                    }
+                }
+            }
+        }
+
+        // Pooled bitmaps aren't displayed, so they're always shed first.
+        pool.evictAll();
+        Log.i(TAG, String.format(Locale.US, "Trimmed memory at level %d: %s", level, this));
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(Configuration newConfig) {}
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder caches = new StringBuilder();
+        for (Cache cache : m_caches) {
+            caches.append(String.format(
+                    Locale.US,
+                    ",%s=%d/%d",
+                    cache.m_name,
+                    cache.m_cache.size(),
+                    cache.m_cache.maxSize()
+            ));
+        }
+        return String.format(
+                Locale.US,
+                "MemoryGovernor[budget=%d,occupancy=%d%s,%s]",
+                m_budget,
+                getOccupancy(),
+                caches,
+                BitmapPool.getInstance()
+        );
+    }
+}
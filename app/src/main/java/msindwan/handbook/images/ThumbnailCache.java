@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.images;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+
+/**
+ * ThumbnailCache:
+ * Caches image thumbnails in memory and on disk, keyed by the image uri
+ * and thumbnail size, so the original image is only decoded once.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThumbnailCache {
+
+    private static final String TAG = "ThumbnailCache";
+    private static final String DIRECTORY = "thumbnails";
+    private static final long MAX_DISK_BYTES = 16 * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static ThumbnailCache m_instance;
+
+    private final LruCache<String, Bitmap> m_memory;
+    private final ContentResolver m_resolver;
+    private final BitmapPool m_pool;
+    private final File m_directory;
+    private long m_diskBytes;
+
+    /**
+     * Gets the singleton instance.
+     * @param context the application context.
+     *
+     * @return the thumbnail cache instance.
+     */
+    public static synchronized ThumbnailCache getInstance(Context context) {
+        if (m_instance == null) {
+            m_instance = new ThumbnailCache(context.getApplicationContext());
+        }
+        return m_instance;
+    }
+
+    // Private constructor to prevent instance instantiation.
+    private ThumbnailCache(Context context) {
+        m_resolver = context.getContentResolver();
+        m_pool = BitmapPool.getInstance();
+        m_directory = new File(context.getCacheDir(), DIRECTORY);
+        m_diskBytes = -1;
+
+        // Thumbnails are small, so a sixteenth of the budget holds hundreds of
+        // them. They're kept on disk, so they're shed once memory is critical.
+        MemoryGovernor governor = MemoryGovernor.getInstance();
+        m_memory = new LruCache<String, Bitmap>(governor.getCacheSize(16)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return bitmap.getByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(
+                    boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+                m_pool.release(oldValue);
+            }
+        };
+        governor.register("thumbnails", m_memory, ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL);
+    }
+
+    /**
+     * Returns the thumbnail if it's held in memory. Safe to call from the
+     * main thread. The thumbnail is retained for the caller, who releases it
+     * to the bitmap pool once it's no longer used.
+     *
+     * @param uri The uri of the image.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @return the thumbnail, or null if it isn't in memory.
+     */
+    public Bitmap getCached(Uri uri, int width, int height) {
+        // Hold the pool's lock so the thumbnail can't be evicted and reused
+        // before it's retained.
+        synchronized (m_pool) {
+            Bitmap thumbnail = m_memory.get(getKey(uri, width, height));
+            if (thumbnail != null) {
+                m_pool.retain(thumbnail);
+            }
+            return thumbnail;
+        }
+    }
+
+    /**
+     * Returns the thumbnail from memory, then disk, and decodes it from the
+     * image only if neither holds it. Must not be called from the main thread.
+     * The thumbnail is retained for the caller, who releases it to the bitmap
+     * pool once it's no longer used.
+     *
+     * @param uri The uri of the image.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @return the thumbnail.
+     * @throws IOException if the image cannot be read.
+     */
+    public Bitmap getThumbnail(Uri uri, int width, int height) throws IOException {
+        String key = getKey(uri, width, height);
+
+        Bitmap thumbnail = getCached(uri, width, height);
+        if (thumbnail != null)
+            return thumbnail;
+
+        File file = getFile(key);
+        thumbnail = readFile(file, width, height);
+
+        if (thumbnail == null) {
+            thumbnail = BitmapDecoder.decodeThumbnail(m_resolver, uri, width, height);
+            writeFile(file, thumbnail);
+        }
+
+        // Retain the thumbnail once for the cache and once for the caller.
+        synchronized (m_pool) {
+            m_pool.retain(thumbnail);
+            m_pool.retain(thumbnail);
+            m_memory.put(key, thumbnail);
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Builds the cache key for a thumbnail.
+     *
+     * @param uri The uri of the image.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @return the cache key.
+     */
+    private static String getKey(Uri uri, int width, int height) {
+        return String.format(Locale.US, "%s@%dx%d", uri, width, height);
+    }
+
+    /**
+     * Gets the disk cache file of a thumbnail. Keys are hashed since uris
+     * aren't valid file names.
+     *
+     * @param key The cache key.
+     * @return the cache file.
+     */
+    private File getFile(String key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("MD5");
+            StringBuilder name = new StringBuilder();
+            for (byte b : digest.digest(key.getBytes("UTF-8"))) {
+                name.append(String.format(Locale.US, "%02x", b));
+            }
+            return new File(m_directory, name.toString());
+        } catch (NoSuchAlgorithmException | IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Reads a thumbnail from the disk cache, into a pooled bitmap if one fits.
+     *
+     * @param file The cache file.
+     * @param width The width of the thumbnail.
+     * @param height The height of the thumbnail.
+     * @return the thumbnail, or null if it isn't cached.
+     */
+    private Bitmap readFile(File file, int width, int height) {
+        if (!file.exists())
+            return null;
+
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        m_pool.prepare(options, width, height);
+        Bitmap reusable = options.inBitmap;
+
+        Bitmap thumbnail;
+        try {
+            thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        } catch (IllegalArgumentException e) {
+            options.inBitmap = null;
+            thumbnail = BitmapFactory.decodeFile(file.getPath(), options);
+        }
+        if (reusable != null && thumbnail != reusable) {
+            m_pool.put(reusable);
+        }
+
+        if (thumbnail != null) {
+            // Mark the file as recently used.
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+        }
+        return thumbnail;
+    }
+
+    /**
+     * Writes a thumbnail to the disk cache. Failures are logged since the
+     * thumbnail can always be decoded again.
+     *
+     * @param file The cache file.
+     * @param thumbnail The thumbnail to write.
+     */
+    private void writeFile(File file, Bitmap thumbnail) {
+        if (!m_directory.exists() && !m_directory.mkdirs()) {
+            Log.w(TAG, "Cannot create " + m_directory);
+            return;
+        }
+
+        // Write to a temporary file first so readers never see a partial thumbnail.
+        File temp = new File(m_directory, file.getName() + "." + Thread.currentThread().getId());
+        try {
+            OutputStream out = new FileOutputStream(temp);
+            try {
+                thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, out);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Cannot rename " + temp);
+            }
+            trimDisk(file.length());
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot cache thumbnail", e);
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+        }
+    }
+
+    /**
+     * Deletes the least recently used thumbnails once the disk cache
+     * exceeds its size.
+     *
+     * @param added The number of bytes just written.
+     */
+    private synchronized void trimDisk(long added) {
+        File[] files = m_directory.listFiles();
+        if (files == null)
+            return;
+
+        if (m_diskBytes < 0) {
+            m_diskBytes = 0;
+            for (File file : files) {
+                m_diskBytes += file.length();
+            }
+        } else {
+            m_diskBytes += added;
+        }
+
+        if (m_diskBytes <= MAX_DISK_BYTES)
+            return;
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.valueOf(a.lastModified()).compareTo(b.lastModified());
+            }
+        });
+
+        // Trim down to three quarters of the size so trimming isn't
+        // repeated on every write.
+        for (File file : files) {
+            if (m_diskBytes <= MAX_DISK_BYTES * 3 / 4)
+                break;
+
+            long length = file.length();
+            if (file.delete()) {
+                m_diskBytes -= length;
+            }
+        }
+    }
+}
@@ -16,34 +16,45 @@
 package msindwan.handbook.models;
 
 import android.content.ContentResolver;
+import android.content.res.AssetFileDescriptor;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.media.ThumbnailUtils;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.provider.MediaStore;
+import android.provider.OpenableColumns;
 
 import org.jetbrains.annotations.Contract;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Locale;
 
+import msindwan.handbook.images.BitmapDecoder;
+
 /**
  * Image:
  * Represents the data in an image.
  */
 @SuppressWarnings({"unused", "WeakerAccess"})
-public class Image implements Parcelable {
+public class Image extends TrackedModel implements Parcelable {
+
+    // Tracked fields.
+    public static final int FIELD_URI      = 1;
+    public static final int FIELD_STEP_ID  = 1 << 1;
+    public static final int FIELD_METADATA = 1 << 2;
 
     public static final int KILOBYTE = 1024;
 
     private boolean m_deleted;
     private Uri m_imageURI;
+    private String m_mimeType;
     private String m_name;
     private long m_size;
+    private int m_width;
+    private int m_height;
     private Long m_stepId;
     private Long m_id;
 
@@ -51,6 +62,8 @@ public class Image implements Parcelable {
     public Image() {
         m_deleted = false;
         m_size = 0;
+        m_width = 0;
+        m_height = 0;
     }
 
     // Parcelable constructor.
@@ -61,6 +74,10 @@ public class Image implements Parcelable {
         m_stepId = (long)in.readValue(long.class.getClassLoader());
         m_id = (long)in.readValue(long.class.getClassLoader());
         m_size = (long)in.readValue(long.class.getClassLoader());
+        m_width = in.readInt();
+        m_height = in.readInt();
+        m_mimeType = in.readString();
+        setDirtyFields(in.readInt());
     }
 
     /**
@@ -77,6 +94,10 @@ public class Image implements Parcelable {
         out.writeValue(m_stepId);
         out.writeValue(m_id);
         out.writeValue(m_size);
+        out.writeInt(m_width);
+        out.writeInt(m_height);
+        out.writeString(m_mimeType);
+        out.writeInt(getDirtyFields());
     }
 
     /**
@@ -152,6 +173,7 @@ public class Image implements Parcelable {
      * @param name The name to set.
      */
     public void setName(String name) {
+        track(FIELD_METADATA, m_name, name);
         m_name = name;
     }
 
@@ -170,6 +192,7 @@ public class Image implements Parcelable {
      * @param id The id to set.
      */
     public void setStepId(Long id) {
+        track(FIELD_STEP_ID, m_stepId, id);
         m_stepId = id;
     }
 
@@ -206,18 +229,103 @@ public class Image implements Parcelable {
      * @param imageURI the image byte array to set.
      */
     public void setImageURI(Uri imageURI) {
+        track(FIELD_URI, m_imageURI, imageURI);
         m_imageURI = imageURI;
     }
 
     /**
      * Getter for the size of the image.
      *
-     * @return the size of the image.
+     * @return the size of the image in bytes.
      */
     public long getSize() {
         return m_size;
     }
 
+    /**
+     * Setter for the size of the image.
+     *
+     * @param size The size in bytes to set.
+     */
+    public void setSize(long size) {
+        track(FIELD_METADATA, m_size, size);
+        m_size = size;
+    }
+
+    /**
+     * Getter for the width of the image.
+     *
+     * @return the width in pixels.
+     */
+    public int getWidth() {
+        return m_width;
+    }
+
+    /**
+     * Getter for the height of the image.
+     *
+     * @return the height in pixels.
+     */
+    public int getHeight() {
+        return m_height;
+    }
+
+    /**
+     * Setter for the dimensions of the image.
+     *
+     * @param width The width in pixels to set.
+     * @param height The height in pixels to set.
+     */
+    public void setDimensions(int width, int height) {
+        track(FIELD_METADATA, m_width, width);
+        track(FIELD_METADATA, m_height, height);
+        m_width = width;
+        m_height = height;
+    }
+
+    /**
+     * Getter for the mime type.
+     *
+     * @return the mime type of the image.
+     */
+    public String getMimeType() {
+        return m_mimeType;
+    }
+
+    /**
+     * Setter for the mime type.
+     *
+     * @param mimeType The mime type to set.
+     */
+    public void setMimeType(String mimeType) {
+        track(FIELD_METADATA, m_mimeType, mimeType);
+        m_mimeType = mimeType;
+    }
+
+    /**
+     * Copies the uri and metadata of another image, e.g. one read (and
+     * possibly re-encoded) in the background.
+     *
+     * @param source The image to copy from.
+     */
+    public void setMetadata(Image source) {
+        setImageURI(source.getImageURI());
+        setName(source.getName());
+        setSize(source.getSize());
+        setDimensions(source.getWidth(), source.getHeight());
+        setMimeType(source.getMimeType());
+    }
+
+    /**
+     * Checks whether the image's metadata has been read. Images added before
+     * metadata was stored have none until they're read again.
+     *
+     * @return true if the metadata is known.
+     */
+    public boolean hasMetadata() {
+        return m_name != null && m_mimeType != null;
+    }
+
     /**
      * Reads the image from the media store.
      *
@@ -230,7 +338,8 @@ public class Image implements Parcelable {
     }
 
     /**
-     * Returns a thumbnail for the image.
+     * Returns a thumbnail for the image. The image is subsampled while it's
+     * decoded, so it's never decoded at full size.
      *
      * @param resolver The content resolver to read from.
      * @param width The desired width of the thumbnail.
@@ -239,11 +348,12 @@ public class Image implements Parcelable {
      * @throws IOException if the image cannot be read.
      */
     public Bitmap getThumbnail(ContentResolver resolver, int width, int height) throws IOException {
-        return ThumbnailUtils.extractThumbnail(getImage(resolver), width, height);
+        return BitmapDecoder.decodeThumbnail(resolver, m_imageURI, width, height);
     }
 
     /**
-     * Reads the image at the specified uri into the model instance.
+     * Reads the image at the specified uri into the model instance, along with
+     * its metadata. The pixels aren't decoded.
      *
      * @param image The uri of the image to read.
      * @param resolver he content resolver to read from.
@@ -251,41 +361,55 @@ public class Image implements Parcelable {
      * @throws SecurityException if the file cannot be accessed.
      */
     public void read(Uri image, ContentResolver resolver) throws IOException, SecurityException {
-        long dataSize = 0;
-        String[] filePathColumn = {
-                MediaStore.Images.Media.DISPLAY_NAME
-        };
-
-        // Resolve the image if possible.
-        Cursor cursor = resolver.query(image, filePathColumn, null, null, null);
-        if (cursor == null) {
-            throw new IOException(
-                String.format(
-                    Locale.getDefault(),
-                    "File at \"%s\" not found",
-                    image.getPath()
-                )
+        String name = null;
+        long size = -1;
+
+        if (ContentResolver.SCHEME_FILE.equals(image.getScheme())) {
+            File file = new File(image.getPath());
+            name = file.getName();
+            size = file.length();
+        } else {
+            // Resolve the image's name and size.
+            Cursor cursor = resolver.query(
+                    image,
+                    new String[] { OpenableColumns.DISPLAY_NAME, OpenableColumns.SIZE },
+                    null,
+                    null,
+                    null
             );
-        }
+            if (cursor == null) {
+                throw new IOException(
+                    String.format(
+                        Locale.getDefault(),
+                        "File at \"%s\" not found",
+                        image.getPath()
+                    )
+                );
+            }
 
-        // Set the name.
-        if(cursor.moveToFirst()){
-            int columnIndex = cursor.getColumnIndex(filePathColumn[0]);
-            m_name = cursor.getString(columnIndex);
-        }
-        cursor.close();
-
-        // Calculate the size (in KB).
-        String scheme = image.getScheme();
-        if(scheme.equals(ContentResolver.SCHEME_CONTENT)) {
-            InputStream fileInputStream = resolver.openInputStream(image);
-            if (fileInputStream != null) {
-                m_size = fileInputStream.available() / KILOBYTE;
+            if (cursor.moveToFirst()) {
+                name = cursor.getString(0);
+                if (!cursor.isNull(1)) {
+                    size = cursor.getLong(1);
+                }
+            }
+            cursor.close();
+
+            // Providers aren't required to report the size.
+            if (size < 0) {
+                AssetFileDescriptor descriptor = resolver.openAssetFileDescriptor(image, "r");
+                if (descriptor != null) {
+                    size = descriptor.getLength();
+                    descriptor.close();
+                }
             }
-        } else if(image.getScheme().equals(ContentResolver.SCHEME_FILE)) {
-            File file = new File(image.getPath());
-            m_size = file.length() / KILOBYTE;
         }
+
+        BitmapFactory.Options bounds = BitmapDecoder.decodeBounds(resolver, image);
+        setName(name);
+        setSize(Math.max(0, size));
+        setDimensions(bounds.outWidth, bounds.outHeight);
+        setMimeType(bounds.outMimeType);
         setImageURI(image);
     }
-}
\ No newline at end of file
+}
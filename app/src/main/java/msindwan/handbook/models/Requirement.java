@@ -24,7 +24,14 @@ import org.jetbrains.annotations.Contract;
  * Requirement:
  * Represents the data in a requirement.
  */
-public class Requirement implements Parcelable {
+public class Requirement extends TrackedModel implements Parcelable {
+
+    // Tracked fields.
+    public static final int FIELD_NAME     = 1;
+    public static final int FIELD_AMOUNT   = 1 << 1;
+    public static final int FIELD_UNIT     = 1 << 2;
+    public static final int FIELD_OPTIONAL = 1 << 3;
+    public static final int FIELD_STEP_ID  = 1 << 4;
 
     private Boolean m_deleted;
     private Boolean m_optional;
@@ -60,6 +67,7 @@ public class Requirement implements Parcelable {
         m_optional = (Boolean)in.readValue(Boolean.class.getClassLoader());
         m_deleted = (Boolean)in.readValue(Boolean.class.getClassLoader());
         m_id = (long)in.readValue(long.class.getClassLoader());
+        setDirtyFields(in.readInt());
     }
 
     /**
@@ -77,6 +85,7 @@ public class Requirement implements Parcelable {
         out.writeValue(m_optional);
         out.writeValue(m_deleted);
         out.writeValue(m_id);
+        out.writeInt(getDirtyFields());
     }
 
     /**
@@ -152,6 +161,7 @@ public class Requirement implements Parcelable {
      * @param name The name to set.
      */
     public void setName(String name) {
+        track(FIELD_NAME, m_name, name);
         m_name = name;
     }
 
@@ -170,6 +180,7 @@ public class Requirement implements Parcelable {
      * @param unit The unit to set.
      */
     public void setUnit(String unit) {
+        track(FIELD_UNIT, m_unit, unit);
         m_unit = unit;
     }
 
@@ -188,6 +199,7 @@ public class Requirement implements Parcelable {
      * @param amount The amount to set.
      */
     public void setAmount(Double amount) {
+        track(FIELD_AMOUNT, m_amount, amount);
         m_amount = amount;
     }
 
@@ -206,6 +218,7 @@ public class Requirement implements Parcelable {
      * @param id The id to set.
      */
     public void setStepId(Long id) {
+        track(FIELD_STEP_ID, m_stepId, id);
         m_stepId = id;
     }
 
@@ -224,6 +237,7 @@ public class Requirement implements Parcelable {
      * @param optional The optional flag value.
      */
     public void setOptional(Boolean optional) {
+        track(FIELD_OPTIONAL, m_optional, optional);
         m_optional = optional;
     }
 
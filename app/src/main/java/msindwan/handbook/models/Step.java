@@ -28,7 +28,13 @@ import java.util.ArrayList;
  * in a tutorial.
  */
 @SuppressWarnings("unused")
-public class Step implements Parcelable {
+public class Step extends TrackedModel implements Parcelable {
+
+    // Tracked fields.
+    public static final int FIELD_TITLE        = 1;
+    public static final int FIELD_INSTRUCTIONS = 1 << 1;
+    public static final int FIELD_TUTORIAL_ID  = 1 << 2;
+    public static final int FIELD_INDEX        = 1 << 3;
 
     private ArrayList<Requirement> m_requirements;
     private ArrayList<Image> m_images;
@@ -58,6 +64,7 @@ public class Step implements Parcelable {
         m_id = (long)in.readValue(long.class.getClassLoader());
         in.readTypedList(m_requirements, Requirement.CREATOR);
         in.readTypedList(m_images, Image.CREATOR);
+        setDirtyFields(in.readInt());
     }
 
     /**
@@ -85,6 +92,7 @@ public class Step implements Parcelable {
         out.writeValue(m_id);
         out.writeTypedList(m_requirements);
         out.writeTypedList(m_images);
+        out.writeInt(getDirtyFields());
     }
 
     /**
@@ -148,6 +156,7 @@ public class Step implements Parcelable {
      * @param index The index to set.
      */
     public void setIndex(Long index) {
+        track(FIELD_INDEX, m_index, index);
         m_index = index;
     }
 
@@ -166,6 +175,7 @@ public class Step implements Parcelable {
      * @param id the step's tutorial id.
      */
     public void setTutorialId(Long id) {
+        track(FIELD_TUTORIAL_ID, m_tutorialId, id);
         m_tutorialId = id;
     }
 
@@ -184,6 +194,7 @@ public class Step implements Parcelable {
      * @param instructions the instructions to set.
      */
     public void setInstructions(String instructions) {
+        track(FIELD_INSTRUCTIONS, m_instructions, instructions);
         m_instructions = instructions;
     }
 
@@ -202,6 +213,7 @@ public class Step implements Parcelable {
      * @param title the step's title.
      */
     public void setTitle(String title) {
+        track(FIELD_TITLE, m_title, title);
         m_title = title;
     }
 
@@ -283,6 +295,29 @@ public class Step implements Parcelable {
         return m_images.remove(image);
     }
 
+    /**
+     * Checks if the step, its requirements or its images have pending
+     * changes (including insertions and deletions).
+     *
+     * @return true if the step has pending changes; false otherwise.
+     */
+    public boolean hasChanges() {
+        if (m_id == null || m_deleted || isDirty()) {
+            return true;
+        }
+        for (Requirement requirement : m_requirements) {
+            if (requirement.getId() == null || requirement.isDeleted() || requirement.isDirty()) {
+                return true;
+            }
+        }
+        for (Image image : m_images) {
+            if (image.getId() == null || image.isDeleted() || image.isDirty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Setter for the deleted flag.
      *
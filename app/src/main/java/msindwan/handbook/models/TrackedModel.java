@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.models;
+
+/**
+ * TrackedModel:
+ * Base class for models that track which of their fields have been
+ * modified since they were last read from or written to the database.
+ */
+@SuppressWarnings("WeakerAccess")
+public abstract class TrackedModel {
+
+    private int m_dirtyFields;
+
+    /**
+     * Marks the field as dirty if the value has changed.
+     *
+     * @param field The bit flag of the field being set.
+     * @param oldValue The current value of the field.
+     * @param newValue The value being set.
+     * @return true if the value has changed; false otherwise.
+     */
+    protected boolean track(int field, Object oldValue, Object newValue) {
+        boolean changed = oldValue == null ? newValue != null : !oldValue.equals(newValue);
+        if (changed) {
+            m_dirtyFields |= field;
+        }
+        return changed;
+    }
+
+    /**
+     * Checks if any field has been modified.
+     *
+     * @return true if the model is dirty; false otherwise.
+     */
+    public boolean isDirty() {
+        return m_dirtyFields != 0;
+    }
+
+    /**
+     * Checks if the specified field has been modified.
+     *
+     * @param field The bit flag of the field to check.
+     * @return true if the field is dirty; false otherwise.
+     */
+    public boolean isDirty(int field) {
+        return (m_dirtyFields & field) != 0;
+    }
+
+    /**
+     * Getter for the dirty field flags.
+     *
+     * @return the bit flags of the modified fields.
+     */
+    public int getDirtyFields() {
+        return m_dirtyFields;
+    }
+
+    /**
+     * Setter for the dirty field flags.
+     *
+     * @param fields The bit flags to set.
+     */
+    protected void setDirtyFields(int fields) {
+        m_dirtyFields = fields;
+    }
+
+    /**
+     * Marks every field as clean.
+     */
+    public void clearDirty() {
+        m_dirtyFields = 0;
+    }
+}
@@ -29,7 +29,11 @@ import java.util.HashMap;
  * Tutorial:
  * Represents the data in a tutorial.
  */
-public class Tutorial implements Parcelable {
+public class Tutorial extends TrackedModel implements Parcelable {
+
+    // Tracked fields.
+    public static final int FIELD_NAME        = 1;
+    public static final int FIELD_DESCRIPTION = 1 << 1;
 
     private ArrayList<Step> m_steps;
     private String m_description;
@@ -51,6 +55,7 @@ public class Tutorial implements Parcelable {
         m_id = (Long)in.readValue(Long.class.getClassLoader());
         m_numViews = in.readInt();
         in.readTypedList(m_steps, Step.CREATOR);
+        setDirtyFields(in.readInt());
     }
 
     /**
@@ -64,8 +69,9 @@ public class Tutorial implements Parcelable {
         out.writeString(m_description);
         out.writeString(m_name);
         out.writeValue(m_id);
-        out.writeValue(m_numViews);
+        out.writeInt(m_numViews);
         out.writeTypedList(m_steps);
+        out.writeInt(getDirtyFields());
     }
 
     /**
@@ -158,6 +164,7 @@ public class Tutorial implements Parcelable {
      * @param name The name to set.
      */
     public void setName(String name) {
+        track(FIELD_NAME, m_name, name);
         m_name = name;
     }
 
@@ -176,6 +183,7 @@ public class Tutorial implements Parcelable {
      * @param description The description to set.
      */
     public void setDescription(String description) {
+        track(FIELD_DESCRIPTION, m_description, description);
         m_description = description;
     }
 
@@ -282,6 +290,23 @@ public class Tutorial implements Parcelable {
         return requirements.values();
     }
 
+    /**
+     * Checks if the tutorial or any of its steps have been modified.
+     *
+     * @return true if the tutorial graph has pending changes; false otherwise.
+     */
+    public boolean hasChanges() {
+        if (isDirty()) {
+            return true;
+        }
+        for (Step step : m_steps) {
+            if (step.hasChanges()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Filters out deleted steps.
      *
@@ -19,8 +19,13 @@ import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
 import android.database.Cursor;
+import android.database.MergeCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.graphics.Bitmap;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.Bundle;
+import android.os.Handler;
 import android.support.v4.app.ListFragment;
 import android.support.v4.content.ContextCompat;
 import android.support.v4.content.CursorLoader;
@@ -34,19 +39,25 @@ import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AbsListView;
 import android.widget.AdapterView;
 import android.support.v4.app.LoaderManager;
 import android.widget.ImageButton;
+import android.widget.ImageView;
 import android.widget.ListView;
 import android.widget.SearchView;
 import android.widget.TextView;
 
+import java.util.ArrayList;
 import java.util.Locale;
 
 import msindwan.handbook.R;
 import msindwan.handbook.data.DataContentProvider;
 import msindwan.handbook.data.DatabaseHelper;
 import msindwan.handbook.data.schema.TutorialTable;
+import msindwan.handbook.images.BitmapPool;
+import msindwan.handbook.images.CoverCache;
+import msindwan.handbook.images.ImageLoader;
 import msindwan.handbook.models.Tutorial;
 import msindwan.handbook.views.tutorial.TutorialEditor;
 import msindwan.handbook.views.tutorial.TutorialViewer;
@@ -66,10 +77,133 @@ public class TutorialListFragment
     private static final String[] TUTORIALS_PROJECTION = new String[] {
             TutorialTable.COL_ID,
             TutorialTable.COL_NAME,
-            TutorialTable.COL_LAST_MODIFIED
+            TutorialTable.COL_LAST_MODIFIED,
+            TutorialTable.COL_NUM_VIEWS
     };
+    // The number of tutorials fetched per page, and how close to the end of
+    // the list the next page is fetched.
+    private static final int PAGE_SIZE = 50;
+    private static final int PAGE_PREFETCH_DISTANCE = 15;
+    // Search input is applied once typing pauses for this long.
+    private static final long SEARCH_DEBOUNCE_MS = 250;
+    // The largest result set that is kept to refine the next search.
+    private static final int MAX_REFINE_RESULTS = 500;
+
+    private final Handler m_handler = new Handler();
     private TutorialListAdapter m_adapter;
+    // The cover holders of every row view, released with the list.
+    private final ArrayList<CoverHolder> m_covers = new ArrayList<>();
+    private CoverCache m_coverCache;
     private String m_searchFilter;
+    // The filter and ids of the last search result, used to narrow
+    // searches that extend it.
+    private String m_resultFilter;
+    private long[] m_resultIds;
+    // The pages fetched past the loader's cursor.
+    private final ArrayList<Cursor> m_pages = new ArrayList<>();
+    private Cursor m_firstPage;
+    private LoadPage m_pageTask;
+    private boolean m_hasMorePages;
+
+    /**
+     * LoadPage:
+     * Fetches the page of tutorials that follows the loaded rows.
+     */
+    private class LoadPage extends AsyncTask<Uri, Void, Cursor> {
+
+        private final ContentResolver m_resolver;
+
+        // Constructor.
+        private LoadPage(ContentResolver resolver) {
+            m_resolver = resolver;
+        }
+
+        @Override
+        protected Cursor doInBackground(Uri... uris) {
+            Cursor cursor = m_resolver.query(uris[0], TUTORIALS_PROJECTION, null, null, null);
+            if (cursor != null) {
+                // Fill the window off the main thread.
+                cursor.getCount();
+            }
+            return cursor;
+        }
+
+        @Override
+        protected void onPostExecute(Cursor cursor) {
+            if (m_pageTask != this || cursor == null) {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                return;
+            }
+            m_pageTask = null;
+            m_pages.add(cursor);
+            m_hasMorePages = cursor.getCount() >= PAGE_SIZE;
+
+            // Reloads (e.g. when tutorials change) fetch every loaded row at once.
+            Loader<Cursor> loader = getLoaderManager().getLoader(0);
+            if (loader != null) {
+                ((CursorLoader)loader).setUri(
+                        DataContentProvider.buildTutorialPageUri(
+                                getSortColumn(),
+                                getLoadedCount(),
+                                null
+                        )
+                );
+            }
+            swapPages();
+        }
+
+        @Override
+        protected void onCancelled(Cursor cursor) {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * CoverHolder:
+     * Tracks the cover shown by a list row, so it's released or cancelled
+     * when the row is recycled.
+     */
+    private class CoverHolder {
+
+        private final ImageView m_view;
+        private ImageLoader.Request m_request;
+        private Bitmap m_bitmap;
+
+        // Constructor.
+        private CoverHolder(ImageView view) {
+            m_view = view;
+        }
+
+        /**
+         * Shows a cover. The cover must already be retained for the holder.
+         *
+         * @param bitmap The cover to show.
+         */
+        private void setCover(Bitmap bitmap) {
+            m_request = null;
+            m_bitmap = bitmap;
+            m_view.setImageBitmap(bitmap);
+        }
+
+        /**
+         * Cancels the pending cover (if any) and releases the shown one.
+         */
+        private void clear() {
+            if (m_request != null) {
+                m_request.cancel();
+                m_request = null;
+            }
+            if (m_bitmap != null) {
+                m_view.setImageDrawable(null);
+                BitmapPool.getInstance().release(m_bitmap);
+                m_bitmap = null;
+            }
+        }
+    }
 
     /**
      * TutorialListAdapter:
@@ -105,6 +239,7 @@ public class TutorialListFragment
             Cursor cursor = (Cursor)m_adapter.getItem(position);
             long id = cursor.getLong(cursor.getColumnIndex(TutorialTable.COL_ID));
             view.setTag(id);
+            bindCover((ImageView)view.findViewById(R.id.dashboard_list_item_cover), id);
 
             // Bind the event listeners.
             ImageButton menuButton =
@@ -119,6 +254,72 @@ public class TutorialListFragment
         }
     }
 
+    /**
+     * Shows the cover of a tutorial in a row. Covers are precomputed when
+     * tutorials are saved, so binding is a memory lookup, falling back to
+     * reading the cover off the main thread.
+     *
+     * @param view The cover view of the row.
+     * @param tutorialId The id of the tutorial.
+     */
+    private void bindCover(ImageView view, final long tutorialId) {
+        CoverHolder holder = (CoverHolder)view.getTag();
+        if (holder == null) {
+            holder = new CoverHolder(view);
+            view.setTag(holder);
+            m_covers.add(holder);
+        }
+
+        Bitmap cover = m_coverCache.getCached(tutorialId);
+        if (cover != null && cover == holder.m_bitmap) {
+            // The row is being rebound to the cover it already shows.
+            BitmapPool.getInstance().release(cover);
+            return;
+        }
+
+        holder.clear();
+        if (cover != null) {
+            holder.setCover(cover);
+        } else if (!m_coverCache.isEmpty(tutorialId)) {
+            final CoverHolder target = holder;
+            holder.m_request = ImageLoader.getInstance(getContext()).load(
+                    String.format(Locale.US, "cover:%d", tutorialId),
+                    new ImageLoader.Decoder() {
+                        @Override
+                        public Bitmap decode() throws Exception {
+                            return m_coverCache.getCover(tutorialId);
+                        }
+                    },
+                    ImageLoader.PRIORITY_VISIBLE,
+                    new ImageLoader.Callback() {
+                        @Override
+                        public void onImageLoaded(Bitmap bitmap) {
+                            BitmapPool.getInstance().retain(bitmap);
+                            target.setCover(bitmap);
+                        }
+
+                        @Override
+                        public void onImageFailed(Exception e) {
+                            // Tutorials without images have no cover.
+                            target.m_request = null;
+                        }
+                    }
+            );
+        }
+    }
+
+    /**
+     * Releases the covers shown by the list.
+     */
+    @Override
+    public void onDestroyView() {
+        for (CoverHolder holder : m_covers) {
+            holder.clear();
+        }
+        m_covers.clear();
+        super.onDestroyView();
+    }
+
     /**
      * Called when the fragment's activity has been created and this
      * fragment's view hierarchy instantiated.
@@ -131,6 +332,7 @@ public class TutorialListFragment
         super.onActivityCreated(savedInstanceState);
 
         setHasOptionsMenu(true);
+        m_coverCache = CoverCache.getInstance(getContext());
         setEmptyText(getResources().getText(R.string.no_tutorials));
 
         // Create an adapter for tutorials.
@@ -150,6 +352,117 @@ public class TutorialListFragment
         // Initialize the loader.
         getLoaderManager().initLoader(0, null, this);
         registerForContextMenu(getListView());
+        getListView().setOnScrollListener(onListScroll);
+    }
+
+    /**
+     * Gets the column the tab is sorted by.
+     *
+     * @return the sort column.
+     */
+    private String getSortColumn() {
+        return getArguments().getString("order", TutorialTable.COL_NAME);
+    }
+
+    /**
+     * Gets the number of tutorials loaded across every page.
+     *
+     * @return the number of loaded rows.
+     */
+    private int getLoadedCount() {
+        int count = m_firstPage != null ? m_firstPage.getCount() : 0;
+        for (Cursor page : m_pages) {
+            count += page.getCount();
+        }
+        return count;
+    }
+
+    /**
+     * Fetches the page that follows the loaded rows.
+     */
+    private void loadNextPage() {
+        Cursor last = m_pages.isEmpty() ? m_firstPage : m_pages.get(m_pages.size() - 1);
+        if (last == null || !last.moveToLast()) {
+            return;
+        }
+
+        Uri uri = DataContentProvider.buildTutorialPageUri(getSortColumn(), PAGE_SIZE, last);
+        m_pageTask = new LoadPage(getActivity().getContentResolver());
+        m_pageTask.execute(uri);
+    }
+
+    /**
+     * Closes the pages fetched past the loader's cursor and stops fetching more.
+     */
+    private void clearPages() {
+        if (m_pageTask != null) {
+            m_pageTask.cancel(false);
+            m_pageTask = null;
+        }
+        for (Cursor page : m_pages) {
+            page.close();
+        }
+        m_pages.clear();
+    }
+
+    /**
+     * Displays the loaded pages.
+     */
+    private void swapPages() {
+        if (m_pages.isEmpty()) {
+            m_adapter.swapCursor(m_firstPage);
+            return;
+        }
+
+        Cursor[] cursors = new Cursor[m_pages.size() + 1];
+        cursors[0] = m_firstPage;
+        for (int i = 0; i < m_pages.size(); i++) {
+            cursors[i + 1] = m_pages.get(i);
+        }
+        m_adapter.swapCursor(new MergeCursor(cursors));
+    }
+
+    /**
+     * Listener that fetches the next page as the end of the list comes into view.
+     */
+    private AbsListView.OnScrollListener onListScroll = new AbsListView.OnScrollListener() {
+        @Override
+        public void onScrollStateChanged(AbsListView view, int scrollState) {}
+        @Override
+        public void onScroll(AbsListView view,
+                             int firstVisibleItem,
+                             int visibleItemCount,
+                             int totalItemCount) {
+            if (m_hasMorePages
+                    && m_pageTask == null
+                    && firstVisibleItem + visibleItemCount >= totalItemCount - PAGE_PREFETCH_DISTANCE) {
+                loadNextPage();
+            }
+        }
+    };
+
+    /**
+     * Called when the Fragment is visible to the user.
+     */
+    @Override
+    public void onStart() {
+        super.onStart();
+
+        // Tutorials may have been edited since the last search, so the
+        // next one can't be narrowed to its results.
+        if (m_resultFilter != null) {
+            resetSearchResults();
+            getLoaderManager().restartLoader(0, null, this);
+        }
+    }
+
+    /**
+     * Called when the Fragment is no longer started.
+     */
+    @Override
+    public void onStop() {
+        m_handler.removeCallbacks(applySearchFilter);
+        super.onStop();
     }
 
     /**
@@ -209,6 +522,7 @@ public class TutorialListFragment
                     db.setTransactionSuccessful();
                 }
                 db.endTransaction();
+                m_coverCache.remove(id);
 
                 ContentResolver resolver = getActivity().getContentResolver();
                 resolver.notifyChange(DataContentProvider.TUTORIAL_URI, null);
@@ -277,12 +591,62 @@ public class TutorialListFragment
      */
     @Override
     public boolean onQueryTextChange(String newText) {
-        // Update the search filter and reload the list.
-        m_searchFilter = !TextUtils.isEmpty(newText) ? newText : null;
-        getLoaderManager().restartLoader(0, null, this);
+        String filter = !TextUtils.isEmpty(newText) ? newText : null;
+        if (TextUtils.equals(filter, m_searchFilter)) {
+            return true;
+        }
+
+        // Update the search filter and reload the list once typing pauses. Clearing
+        // the search is applied immediately.
+        m_searchFilter = filter;
+        m_handler.removeCallbacks(applySearchFilter);
+
+        if (filter == null) {
+            applySearchFilter.run();
+        } else {
+            m_handler.postDelayed(applySearchFilter, SEARCH_DEBOUNCE_MS);
+        }
         return true;
     }
 
+    /**
+     * Reloads the list with the current search filter. Restarting the loader
+     * cancels the query in flight, so at most one search is live at a time.
+     */
+    private final Runnable applySearchFilter = new Runnable() {
+        @Override
+        public void run() {
+            if (isAdded()) {
+                getLoaderManager().restartLoader(0, null, TutorialListFragment.this);
+            }
+        }
+    };
+
+    /**
+     * Forgets the last search result so the next search isn't narrowed to it.
+     */
+    private void resetSearchResults() {
+        m_resultFilter = null;
+        m_resultIds = null;
+    }
+
+    /**
+     * Gets the results of the previous search to narrow the next one to.
+     * Words are matched as prefixes and all of them must match, so a filter
+     * that extends the previous one can only match a subset of its results.
+     *
+     * @return the ids of the previous results, or null if the search can't
+     *         be narrowed.
+     */
+    private long[] getRefineIds() {
+        if (m_resultIds == null
+                || m_resultFilter == null
+                || !m_searchFilter.startsWith(m_resultFilter)) {
+            return null;
+        }
+        return m_resultIds;
+    }
+
     /**
      * Called when the user submits the query.
      *
@@ -305,34 +669,37 @@ public class TutorialListFragment
      */
     @Override
     public Loader<Cursor> onCreateLoader(int id, Bundle args) {
-        String orderBy = getArguments().getString("order", TutorialTable.COL_NAME);
-        String order = orderBy.equals(TutorialTable.COL_NAME) ? "ASC" : "DESC";
-        String select;
+        String sortColumn = getSortColumn();
+        String orderBy = null;
+        Uri uri;
 
-        // Apply the search filter to the query (if any).
+        // Apply the search filter to the query (if any). Searches go through the
+        // full-text index, which ranks the results ahead of the tab's order.
         if (m_searchFilter != null) {
-            select = String.format(
-                    Locale.getDefault(),
-                    "(%s LIKE '%%%s%%')",
-                    TutorialTable.COL_NAME,
-                    m_searchFilter
-            );
+            // Names are sorted alphabetically; everything else is sorted by the most
+            // recent or frequent.
+            if (sortColumn.equals(TutorialTable.COL_NAME)) {
+                orderBy = sortColumn + " COLLATE LOCALIZED ASC";
+            } else {
+                orderBy = sortColumn + " DESC";
+            }
+
+            uri = DataContentProvider.buildTutorialSearchUri(m_searchFilter, getRefineIds());
         } else {
-            select = String.format(
-                    Locale.getDefault(),
-                    "(%s NOTNULL)",
-                    TutorialTable.COL_NAME
-            );
+            // Otherwise, start from the first page of the tab; the provider orders
+            // it by the tab's index.
+            resetSearchResults();
+            uri = DataContentProvider.buildTutorialPageUri(sortColumn, PAGE_SIZE, null);
         }
 
         // Return the new cursor.
         return new CursorLoader(
                 getActivity(),
-                DataContentProvider.TUTORIAL_URI,
+                uri,
                 TUTORIALS_PROJECTION,
-                select,
                 null,
-                orderBy + " COLLATE LOCALIZED " + order);
+                null,
+                orderBy);
     }
 
     /**
@@ -343,8 +710,37 @@ public class TutorialListFragment
      */
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
+        Uri uri = ((CursorLoader)loader).getUri();
+
+        // The loader's cursor replaces every loaded page. Keep fetching pages
+        // if it was limited (searches aren't paged).
+        clearPages();
+        m_firstPage = data;
+
+        String limit = uri.getQueryParameter(DataContentProvider.QUERY_PARAM_LIMIT);
+        m_hasMorePages = data != null
+                && limit != null
+                && data.getCount() >= Integer.parseInt(limit);
+
+        // Keep small search results around to narrow the next search.
+        String filter = uri.getQueryParameter(DataContentProvider.QUERY_PARAM_SEARCH);
+
+        if (filter != null && data != null && data.getCount() <= MAX_REFINE_RESULTS) {
+            long[] ids = new long[data.getCount()];
+            int idIndex = data.getColumnIndex(TutorialTable.COL_ID);
+
+            data.moveToPosition(-1);
+            for (int i = 0; data.moveToNext(); i++) {
+                ids[i] = data.getLong(idIndex);
+            }
+            m_resultFilter = filter;
+            m_resultIds = ids;
+        } else {
+            resetSearchResults();
+        }
+
         // Update the new cursor.
-        m_adapter.swapCursor(data);
+        swapPages();
     }
 
     /**
@@ -357,6 +753,9 @@ public class TutorialListFragment
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
         // The cursor is closing, so remove its reference.
+        clearPages();
+        m_firstPage = null;
+        m_hasMorePages = false;
         m_adapter.swapCursor(null);
     }
 }
\ No newline at end of file
@@ -21,25 +21,37 @@ import android.content.Intent;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
 import android.graphics.Bitmap;
-import android.graphics.drawable.Drawable;
+import android.graphics.Rect;
 import android.net.Uri;
-import android.os.AsyncTask;
 import android.os.Build;
 import android.support.v4.content.ContextCompat;
+import android.support.v4.view.ViewCompat;
 import android.support.v7.app.AppCompatActivity;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.view.Window;
 import android.widget.Toast;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
 
+import msindwan.handbook.BuildConfig;
 import msindwan.handbook.data.DataContentProvider;
 import msindwan.handbook.data.DatabaseHelper;
+import msindwan.handbook.images.CoverCache;
+import msindwan.handbook.images.ImageIngester;
+import msindwan.handbook.images.ImageLoader;
+import msindwan.handbook.images.ImageStore;
+import msindwan.handbook.images.ImageTranscoder;
+import msindwan.handbook.images.ThumbnailCache;
 import msindwan.handbook.models.Image;
 import msindwan.handbook.models.Requirement;
 import msindwan.handbook.models.Step;
@@ -53,6 +65,7 @@ import msindwan.handbook.views.tutorial.components.EditStepForm;
 import msindwan.handbook.views.widgets.Accordion;
 import msindwan.handbook.views.widgets.AsyncProgressDialog;
 import msindwan.handbook.views.widgets.FileUploader;
+import msindwan.handbook.views.widgets.FrameMonitor;
 
 /**
  * TutorialEditor:
@@ -62,11 +75,16 @@ public class TutorialEditor extends AppCompatActivity {
 
     private static final int REQUEST_UPLOAD_IMAGE = 1;
     private static final int NUM_INITIAL_STEPS = 2;
+    private static final int THUMBNAIL_SIZE = 64;
 
     private AsyncProgressDialog m_saveDialog;
     private Accordion m_accordion;
-    LoadStepImages m_imageLoader;
+    private final HashMap<FileUploader.FileUploaderItem, ImageLoader.Request> m_imageRequests
+            = new HashMap<>();
+    private final Rect m_visibleRect = new Rect();
+    private ImageIngester m_ingester;
     private Tutorial m_tutorial;
+    private File m_captureFile;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -76,9 +94,20 @@ public class TutorialEditor extends AppCompatActivity {
         init(savedInstanceState);
     }
 
+    @Override
+    protected void onDestroy() {
+        m_ingester.cancelAll();
+        cancelImageRequests();
+        m_accordion.getViewTreeObserver().removeOnScrollChangedListener(onScrollChanged);
+        super.onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         outState.putParcelable("tutorial", m_tutorial);
+        if (m_captureFile != null) {
+            outState.putString("capture_file", m_captureFile.getPath());
+        }
         super.onSaveInstanceState(outState);
     }
 
@@ -140,6 +169,13 @@ public class TutorialEditor extends AppCompatActivity {
                     }
                 }
 
+                // Placeholders still point at the selected images rather than
+                // their stored copies.
+                if (m_ingester.hasPending()) {
+                    Toast.makeText(this, R.string.images_pending, Toast.LENGTH_SHORT).show();
+                    return true;
+                }
+
                 m_saveDialog.execute();
                 return true;
 
@@ -160,8 +196,21 @@ public class TutorialEditor extends AppCompatActivity {
     protected void onActivityResult(int requestCode, int resultCode, Intent intent) {
         super.onActivityResult(requestCode, resultCode, intent);
 
-        if (resultCode != RESULT_OK)
+        // The capture file is only kept if the camera wrote a photo to it.
+        File captureFile = m_captureFile;
+        m_captureFile = null;
+
+        Uri captureUri = null;
+        if (captureFile != null) {
+            // Camera apps only needed access to the file until they returned.
+            captureUri = FileUploader.getCaptureUri(this, captureFile);
+            revokeUriPermission(captureUri, FileUploader.CAPTURE_GRANT_FLAGS);
+        }
+
+        if (resultCode != RESULT_OK) {
+            discardCaptureFile(captureFile);
             return;
+        }
 
         switch (requestCode) {
             case REQUEST_UPLOAD_IMAGE:
@@ -179,8 +228,23 @@ public class TutorialEditor extends AppCompatActivity {
 
                 // Gather image uris.
                 ArrayList<Uri> images = new ArrayList<>();
-                if (intent.getData() == null) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+                if (captureFile != null && captureFile.length() > 0) {
+                    // The camera wrote a photo to the capture file. Some camera
+                    // apps also return its uri (or one of their own), so the
+                    // file is read directly and moved into the store instead.
+                    images.add(Uri.fromFile(captureFile));
+                } else {
+                    discardCaptureFile(captureFile);
+
+                    // Camera apps that write to the capture file may not
+                    // return an intent.
+                    Uri data = intent != null ? intent.getData() : null;
+                    if (data != null) {
+                        if (!data.equals(captureUri)) {
+                            images.add(data);
+                        }
+                    } else if (intent != null
+                            && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
                         ClipData clipData = intent.getClipData();
                         if (clipData != null) {
                             for (int i = 0; i < clipData.getItemCount(); i++) {
@@ -189,27 +253,34 @@ public class TutorialEditor extends AppCompatActivity {
                             }
                         }
                     }
-                } else {
-                    images.add(intent.getData());
                 }
 
-                // Add the images to the step.
+                // Add placeholders to the step right away and read the images in
+                // the background. Results are matched to the placeholders rather
+                // than the active panel, so they land on the right step.
                 for (Uri uri : images) {
                     image = new Image();
-                    try {
-                        image.read(uri, getContentResolver());
-                        item = stepView.addImage(image);
-                        item.setOnRemoveListener(onImageRemoveListener);
-                        item.setPreview(image.getThumbnail(getContentResolver(), 64, 64));
-                        step.addImage(image);
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                    }
+                    image.setImageURI(uri);
+                    step.addImage(image);
+                    item = stepView.addImage(image);
+                    item.setOnRemoveListener(onImageRemoveListener);
+                    m_ingester.ingest(image);
                 }
                 break;
         }
     }
 
+    /**
+     * Deletes a capture file the camera didn't write a photo to.
+     *
+     * @param captureFile The capture file, or null.
+     */
+    private static void discardCaptureFile(File captureFile) {
+        if (captureFile != null) {
+            //noinspection ResultOfMethodCallIgnored
+            captureFile.delete();
+        }
+    }
 
     /**
      * Initializes the component on mount.
@@ -222,6 +293,17 @@ public class TutorialEditor extends AppCompatActivity {
 
         m_accordion = (Accordion)findViewById(R.id.tutorial_panels);
         m_accordion.setAccordionListener(accordionListener);
+        m_accordion.setVirtualized(true);
+        if (BuildConfig.DEBUG) {
+            // Log frame times of panel animations in debug builds.
+            m_accordion.setFrameMonitor(new FrameMonitor(this, "accordion"));
+        }
+        m_accordion.getViewTreeObserver().addOnScrollChangedListener(onScrollChanged);
+        m_ingester = new ImageIngester(this, THUMBNAIL_SIZE, ingestListener);
+        if (getResources().getBoolean(R.bool.transcode_images)) {
+            m_ingester.setTranscoder(new ImageTranscoder(
+                    this, getResources().getInteger(R.integer.image_max_dimension)));
+        }
 
         // Preserve the state of the view.
         if(savedInstanceState == null
@@ -258,8 +340,12 @@ public class TutorialEditor extends AppCompatActivity {
             // Otherwise, retrieve the old state and render the view
             // accordingly.
             m_tutorial = savedInstanceState.getParcelable("tutorial");
+            if (savedInstanceState.containsKey("capture_file")) {
+                m_captureFile = new File(savedInstanceState.getString("capture_file"));
+            }
             m_saveDialog = (AsyncProgressDialog)
                     getSupportFragmentManager().findFragmentById(R.id.fragment_container);
+            resumeIngests();
         }
 
         // Add the summary panel.
@@ -276,6 +362,29 @@ public class TutorialEditor extends AppCompatActivity {
         }
     }
 
+    /**
+     * Ingests the images that were still being added when the previous
+     * instance was destroyed. These are new images that were never read or
+     * still point at the selected image rather than its stored copy.
+     */
+    private void resumeIngests() {
+        ImageStore store = ImageStore.getInstance(this);
+
+        for (int i = 0; i < m_tutorial.getNumSteps(); i++) {
+            Step step = m_tutorial.getStep(i);
+            if (step.isDeleted())
+                continue;
+
+            for (int j = 0; j < step.getNumImages(); j++) {
+                Image image = step.getImage(j);
+                if (image.getId() == null && !image.isDeleted()
+                        && (!image.hasMetadata() || !store.contains(image.getImageURI()))) {
+                    m_ingester.ingest(image);
+                }
+            }
+        }
+    }
+
     /**
      * Iterates through steps and updates titles and panel states
      * according to the state of the tutorial.
@@ -459,8 +568,20 @@ public class TutorialEditor extends AppCompatActivity {
         @Override
         public void onClick(View v) {
             FileUploader uploader = (FileUploader)v.getTag();
-            Intent selectImage = uploader.select();
-            startActivityForResult(selectImage, REQUEST_UPLOAD_IMAGE);
+
+            try {
+                m_captureFile = ImageStore.getInstance(TutorialEditor.this).createCaptureFile();
+            } catch (IOException e) {
+                Log.e(getResources().getString(R.string.app_name), "exception", e);
+                Toast.makeText(
+                        TutorialEditor.this, R.string.unknown_error, Toast.LENGTH_SHORT).show();
+                return;
+            }
+
+            Intent selectImage = uploader.select(m_captureFile);
+            if (selectImage != null) {
+                startActivityForResult(selectImage, REQUEST_UPLOAD_IMAGE);
+            }
         }
     };
 
@@ -476,6 +597,7 @@ public class TutorialEditor extends AppCompatActivity {
 
             Image image = (Image)item.getArguments();
             Step step = view.getStep();
+            m_ingester.cancel(image);
 
             // If it exists in the db, mark it for deletion.
             // Otherwise, remove it from the tutorial.
@@ -507,6 +629,13 @@ public class TutorialEditor extends AppCompatActivity {
                 db.setTransactionSuccessful();
                 db.endTransaction();
 
+                // Precompute the dashboard cover while the dialog is showing.
+                try {
+                    CoverCache.getInstance(TutorialEditor.this).update(m_tutorial);
+                } catch (IOException | SecurityException e) {
+                    Log.w(getResources().getString(R.string.app_name), "Cannot update cover", e);
+                }
+
                 // Notify the content provider.
                 ContentResolver resolver = getContentResolver();
                 resolver.notifyChange(DataContentProvider.TUTORIAL_URI, null);
@@ -546,11 +675,7 @@ public class TutorialEditor extends AppCompatActivity {
             // If the panel is a step panel, start loading the panel images.
             if (position > 0) {
                 EditStepForm stepView = (EditStepForm)m_accordion.getPanel(position).getPanelView();
-                if (m_imageLoader != null) {
-                    m_imageLoader.cancel(true);
-                }
-                m_imageLoader = new LoadStepImages(stepView);
-                m_imageLoader.execute();
+                loadStepImages(stepView);
             }
         }
         @Override
@@ -594,7 +719,7 @@ public class TutorialEditor extends AppCompatActivity {
             for (i = 0; i < step.getNumImages(); i++) {
                 Image image = step.getImage(i);
                 if (!image.isDeleted()) {
-                    stepView.addImage(image);
+                    stepView.addImage(image).setOnRemoveListener(onImageRemoveListener);
                 }
             }
             return stepView;
@@ -602,87 +727,186 @@ public class TutorialEditor extends AppCompatActivity {
     };
 
     /**
-     * LoadStepImages:
-     * Defines an asynchronous task to fetch thumbnails for each image.
+     * Loads the thumbnails and details of a step's images. The thumbnails are
+     * decoded in parallel, visible items first, and each item is filled in as
+     * soon as its thumbnail is ready.
+     *
+     * @param stepView The step view to load images for.
      */
-    private class LoadStepImages extends AsyncTask<String, Void, String> {
-        EditStepForm m_stepView;
-        Step m_step;
-
-        private LoadStepImages(EditStepForm form) {
-            m_stepView = form;
-            m_step = m_stepView.getStep();
+    private void loadStepImages(EditStepForm stepView) {
+        cancelImageRequests();
+
+        Step step = stepView.getStep();
+        for (int i = 0, j = 0; i < step.getNumImages(); i++) {
+            Image image = step.getImage(i);
+            if (!image.isDeleted()) {
+                // Images being ingested are filled in once they're read.
+                if (!m_ingester.isPending(image)) {
+                    loadPreview(stepView.getUploaderItem(j), image);
+                }
+                j++;
+            }
         }
+    }
 
-        @Override
-        protected String doInBackground(String... params) {
-            for (int i = 0, j = 0; i < m_step.getNumImages(); i++) {
-                final Image image = m_step.getImage(i);
-                if (!image.isDeleted()) {
-                    // Read each image.
-                    final int itemIndex = j;
-
-                    j++;
-                    try {
-                        image.read(image.getImageURI(), getContentResolver());
-                        final Bitmap finalThumbnail = image.getThumbnail(
-                                getContentResolver(), 64, 64);
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                // Set the thumbnail for each item.
-                                FileUploader.FileUploaderItem item;
-                                item = m_stepView.getUploaderItem(itemIndex);
-                                item.setPreview(finalThumbnail);
-                                item.setTitle(image.getName());
-                                item.setSubtitle(String.format(Locale.getDefault(), "%d KB", image.getSize()));
-                            }
-                        });
-                    } catch (Exception e) {
+    /**
+     * Loads the thumbnail of an image into an uploader item. The details are
+     * stored with the image; only images saved before they were stored are
+     * read for them, once, and the details are written on the next save.
+     *
+     * @param item The item to fill in.
+     * @param image The image to load.
+     */
+    private void loadPreview(final FileUploader.FileUploaderItem item, final Image image) {
+        final Uri uri = image.getImageURI();
+        final ContentResolver resolver = getContentResolver();
+        final ThumbnailCache thumbnails = ThumbnailCache.getInstance(this);
+
+        // The details are read into a copy so the image, which the UI may be
+        // reading or saving, is only modified on the main thread.
+        final Image metadata = image.hasMetadata() ? null : new Image();
+
+        ImageLoader.Request request = ImageLoader.getInstance(this).load(
+                String.format(Locale.US, "preview:%s@%d", uri, THUMBNAIL_SIZE),
+                new ImageLoader.Decoder() {
+                    @Override
+                    public Bitmap decode() throws Exception {
+                        if (metadata != null) {
+                            metadata.read(uri, resolver);
+                        }
+                        return thumbnails.getThumbnail(uri, THUMBNAIL_SIZE, THUMBNAIL_SIZE);
+                    }
+                },
+                isVisible(item) ? ImageLoader.PRIORITY_VISIBLE : ImageLoader.PRIORITY_NORMAL,
+                new ImageLoader.Callback() {
+                    @Override
+                    public void onImageLoaded(Bitmap bitmap) {
+                        m_imageRequests.remove(item);
+                        if (metadata != null) {
+                            image.setMetadata(metadata);
+                        }
+
+                        // Items of a collapsed panel are discarded; don't hold
+                        // their thumbnail.
+                        if (!ViewCompat.isAttachedToWindow(item))
+                            return;
+
+                        item.setPreview(bitmap);
+                        EditStepForm.bindImageDetails(item);
+                    }
+
+                    @Override
+                    public void onImageFailed(Exception e) {
                         Log.e(getResources().getString(R.string.app_name), "exception", e);
-                        runOnUiThread(new Runnable() {
-                            @Override
-                            public void run() {
-                                // Set the drawable for each item.
-                                Drawable brokenImage = ContextCompat.getDrawable(
-                                    TutorialEditor.this,
-                                    R.mipmap.ic_broken_image_black_24dp
-                                );
-                                FileUploader.FileUploaderItem item;
-                                item = m_stepView.getUploaderItem(itemIndex);
-                                item.setPreview(brokenImage);
-                                item.setTitle(getResources().getString(R.string.broken_image));
-                                item.setSubtitle(String.format(Locale.getDefault(), "%d KB", image.getSize()));
-                            }
-                        });
+                        m_imageRequests.remove(item);
+                        item.setPreview(ContextCompat.getDrawable(
+                                TutorialEditor.this,
+                                R.mipmap.ic_broken_image_black_24dp
+                        ));
+                        EditStepForm.bindImageDetails(item);
+                        item.setTitle(getResources().getString(R.string.broken_image));
                     }
                 }
+        );
+        m_imageRequests.put(item, request);
+    }
+
+    /**
+     * Finds the uploader item of an image, if its step is expanded.
+     *
+     * @param image The image to find.
+     * @return The item, or null if the image isn't on screen.
+     */
+    private FileUploader.FileUploaderItem findUploaderItem(Image image) {
+        int position = m_accordion.getActivePanel();
+        if (position <= 0)
+            return null;
+
+        EditStepForm stepView = (EditStepForm)m_accordion.getPanel(position).getPanelView();
+        return stepView == null ? null : stepView.findUploaderItem(image);
+    }
+
+    /**
+     * Listener for images read in the background after they're selected.
+     */
+    private ImageIngester.Listener ingestListener = new ImageIngester.Listener() {
+        @Override
+        public void onImageIngested(Image image, Bitmap thumbnail) {
+            FileUploader.FileUploaderItem item = findUploaderItem(image);
+            if (item != null) {
+                item.setPreview(thumbnail);
+                EditStepForm.bindImageDetails(item);
             }
-            return "Executed";
         }
+
         @Override
-        protected void onPostExecute(String result) {
-            // Bind event listeners after each item has been rendered.
-            for (int i = 0, j = 0; i < m_step.getNumImages(); i++) {
-                final Image image = m_step.getImage(i);
-                if (!image.isDeleted()) {
-                    final int itemIndex = j;
-                    j++;
-                    runOnUiThread(new Runnable() {
-                        @Override
-                        public void run() {
-                            FileUploader.FileUploaderItem item;
-                            item = m_stepView.getUploaderItem(itemIndex);
-                            item.setOnRemoveListener(onImageRemoveListener);
-                        }
-                    });
+        public void onImageFailed(Image image, Exception e) {
+            Log.e(getResources().getString(R.string.app_name), "exception", e);
+
+            // Drop the image from whichever step it was added to.
+            if (image.getId() != null) {
+                image.setDeleted(true);
+            } else {
+                for (int i = 0; i < m_tutorial.getNumSteps(); i++) {
+                    if (m_tutorial.getStep(i).removeImage(image))
+                        break;
                 }
             }
+
+            FileUploader.FileUploaderItem item = findUploaderItem(image);
+            if (item != null) {
+                ((EditStepForm)item.getTag()).removeFileUploaderItem(item);
+            }
+            Toast.makeText(TutorialEditor.this, R.string.broken_image, Toast.LENGTH_SHORT).show();
         }
+
         @Override
-        protected void onPreExecute() {}
-        @Override
-        protected void onProgressUpdate(Void... values) {}
+        public void onProgress(int completed, int total) {
+            android.support.v7.app.ActionBar actionBar = getSupportActionBar();
+            if (actionBar == null)
+                return;
+
+            actionBar.setSubtitle(completed < total
+                    ? getResources().getString(R.string.adding_images, completed, total)
+                    : null);
+        }
+    };
+
+    /**
+     * Cancels the pending image requests.
+     */
+    private void cancelImageRequests() {
+        for (ImageLoader.Request request : m_imageRequests.values()) {
+            request.cancel();
+        }
+        m_imageRequests.clear();
     }
-}
 
+    /**
+     * Checks whether a view is on screen.
+     *
+     * @param view The view to check.
+     * @return true if any part of the view is visible.
+     */
+    private boolean isVisible(View view) {
+        return view.isShown() && view.getGlobalVisibleRect(m_visibleRect);
+    }
+
+    /**
+     * Listener for scrolling that raises the priority of images scrolled into view.
+     */
+    private ViewTreeObserver.OnScrollChangedListener onScrollChanged
+            = new ViewTreeObserver.OnScrollChangedListener() {
+        @Override
+        public void onScrollChanged() {
+            for (Map.Entry<FileUploader.FileUploaderItem, ImageLoader.Request> entry
+                    : m_imageRequests.entrySet()) {
+                entry.getValue().setPriority(
+                        isVisible(entry.getKey())
+                                ? ImageLoader.PRIORITY_VISIBLE
+                                : ImageLoader.PRIORITY_NORMAL
+                );
+            }
+        }
+    };
+}
@@ -31,11 +31,14 @@ import android.view.Window;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Locale;
 
 import msindwan.handbook.R;
 import msindwan.handbook.data.DatabaseHelper;
+import msindwan.handbook.data.ViewCounter;
+import msindwan.handbook.images.ImageLoader;
 import msindwan.handbook.models.Requirement;
 import msindwan.handbook.models.Step;
 import msindwan.handbook.models.Tutorial;
@@ -60,6 +63,7 @@ public class TutorialViewer extends AppCompatActivity {
     private Carousel m_carousel;
     private Tutorial m_tutorial;
     private TextToSpeech m_tts;
+    private final ArrayList<ImageLoader.Request> m_prefetchRequests = new ArrayList<>();
 
     /**
      * TutorialTabPager:
@@ -127,12 +131,14 @@ public class TutorialViewer extends AppCompatActivity {
     @Override
     protected void onPause() {
         stopSpeech();
+        ViewCounter.getInstance(this).flush();
         super.onPause();
     }
 
     @Override
     protected void onDestroy(){
         super.onDestroy();
+        cancelPrefetch();
         m_tts.shutdown();
     }
 
@@ -164,8 +170,10 @@ public class TutorialViewer extends AppCompatActivity {
             // Fetch the corresponding tutorial.
             DatabaseHelper helper = DatabaseHelper.getInstance(this);
             helper.fetch(m_tutorial, Integer.parseInt(tutorial_id));
+
+            // Record the view; it's written to the database in the background.
             m_tutorial.setNumViews(m_tutorial.getNumViews() + 1);
-            helper.update(m_tutorial);
+            ViewCounter.getInstance(this).record(m_tutorial.getId());
         } else {
             // Otherwise, retrieve the old state and render the view
             // accordingly.
@@ -194,6 +202,49 @@ public class TutorialViewer extends AppCompatActivity {
 
         m_playButton.setOnClickListener(onPlayButtonClick);
         m_playButton.setTag(TTS_STATE_STOP);
+
+        // Prefetch around the initial page once the carousel is laid out.
+        m_carousel.post(new Runnable() {
+            @Override
+            public void run() {
+                prefetchNeighbours(m_carousel.getActivePage());
+            }
+        });
+    }
+
+    /**
+     * Decodes the images of the steps before and after a page at low priority,
+     * so swiping (or reciting) to the next step shows its images without
+     * waiting. Prefetches for the previous page are cancelled. Step data is
+     * hydrated with the tutorial, so only images need warming.
+     *
+     * @param position The position of the selected page.
+     */
+    private void prefetchNeighbours(int position) {
+        cancelPrefetch();
+
+        int width = m_carousel.getWidth();
+        if (width <= 0)
+            return;
+
+        // Page 0 is the summary; page N shows step N - 1.
+        for (int page : new int[] { position + 1, position - 1 }) {
+            if (page >= 1 && page <= m_tutorial.getNumSteps()) {
+                m_prefetchRequests.addAll(
+                        StepForm.prefetchImages(this, m_tutorial.getStep(page - 1), width)
+                );
+            }
+        }
+    }
+
+    /**
+     * Cancels pending prefetches.
+     */
+    private void cancelPrefetch() {
+        for (ImageLoader.Request request : m_prefetchRequests) {
+            request.cancel();
+        }
+        m_prefetchRequests.clear();
     }
 
     /**
@@ -299,6 +350,7 @@ public class TutorialViewer extends AppCompatActivity {
         @Override
         public void onPageSelected(int position) {
             stopSpeech();
+            prefetchNeighbours(position);
             if (position == 0) {
                 m_title.setText(m_tutorial.getName());
             } else {
@@ -238,12 +238,46 @@ public class EditStepForm extends RelativeLayout {
         item = new FileUploader.FileUploaderItem(getContext());
         item.setTag(this);
         item.setArguments(image);
-        item.setTitle(image.getName());
-        item.setSubtitle(String.format(Locale.getDefault(), "%d KB", image.getSize()));
+        bindImageDetails(item);
         addFileUploaderItem(item);
         return item;
     }
 
+    /**
+     * Finds the uploader item of an image.
+     *
+     * @param image The image to find.
+     * @return The item, or null if the image isn't listed.
+     */
+    public FileUploader.FileUploaderItem findUploaderItem(Image image) {
+        for (int i = 0; i < m_uploader.getNumFileUploaderItems(); i++) {
+            FileUploader.FileUploaderItem item = m_uploader.getFileUploaderItem(i);
+            if (item.getArguments() == image) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Shows the name and size of an item's image, as stored with the image.
+     * Images that haven't been read yet are shown as being processed.
+     *
+     * @param item The item to update.
+     */
+    public static void bindImageDetails(FileUploader.FileUploaderItem item) {
+        Image image = (Image)item.getArguments();
+        if (!image.hasMetadata()) {
+            item.setTitle(item.getResources().getString(R.string.processing_image));
+            item.setSubtitle(null);
+            return;
+        }
+
+        item.setTitle(image.getName());
+        item.setSubtitle(String.format(
+                Locale.getDefault(), "%d KB", image.getSize() / Image.KILOBYTE));
+    }
+
     /**
      * Sets the listener for the uploader zone.
      *
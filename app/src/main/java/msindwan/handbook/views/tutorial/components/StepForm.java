@@ -15,19 +15,30 @@
  */
 package msindwan.handbook.views.tutorial.components;
 
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.net.Uri;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.view.PagerAdapter;
+import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.FrameLayout;
 import android.widget.ImageView;
 import android.widget.LinearLayout;
+import android.widget.ProgressBar;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+
 import msindwan.handbook.R;
+import msindwan.handbook.images.BitmapPool;
+import msindwan.handbook.images.ImageLoader;
 import msindwan.handbook.models.Step;
 import msindwan.handbook.views.widgets.Carousel;
+import msindwan.handbook.views.widgets.ZoomableImageView;
 
 /**
  * StepView:
@@ -35,6 +46,8 @@ import msindwan.handbook.views.widgets.Carousel;
  */
 public class StepForm extends Fragment {
 
+    private final ArrayList<StepImagePage> m_pages = new ArrayList<>();
+
     /**
      * StepImagePager:
      * Defines a pager for the image carousel.
@@ -58,19 +71,201 @@ public class StepForm extends Fragment {
         }
         @Override
         public Object instantiateItem(ViewGroup container, int position) {
-            // Return a view for the step image at the current position.
-            ImageView imageView = new ImageView(getContext());
-            imageView.setImageURI(m_step.getImage(position).getImageURI());
-
-            container.addView(imageView, new ViewGroup.LayoutParams(
+            // Return a view for the step image at the current position. A spinner
+            // is shown until the image is decoded in the background.
+            StepImagePage page = new StepImagePage(getContext());
+            container.addView(page, new ViewGroup.LayoutParams(
                     ViewGroup.LayoutParams.MATCH_PARENT,
                     ViewGroup.LayoutParams.MATCH_PARENT
             ));
-            return imageView;
+
+            // The pager is measured before it's populated, so pages are decoded
+            // to the size they're displayed at. Steps that aren't on screen
+            // load their images after the one that is.
+            page.load(
+                    m_step.getImage(position).getImageURI(),
+                    container.getMeasuredWidth(),
+                    getImageHeight(getContext()),
+                    getUserVisibleHint()
+                            ? ImageLoader.PRIORITY_VISIBLE
+                            : ImageLoader.PRIORITY_PREFETCH
+            );
+            m_pages.add(page);
+            return page;
         }
         @Override
         public void destroyItem(ViewGroup container, int position, Object object) {
-            container.removeView((ImageView) object);
+            StepImagePage page = (StepImagePage)object;
+            page.release();
+            m_pages.remove(page);
+            container.removeView(page);
+        }
+    }
+
+    /**
+     * StepImagePage:
+     * Defines a carousel page that loads a step image off the main thread.
+     * The image can be zoomed into, decoding the original as needed.
+     */
+    private static class StepImagePage extends FrameLayout {
+
+        private ImageLoader.Request m_request;
+        private ProgressBar m_spinner;
+        private ZoomableImageView m_imageView;
+
+        // Constructor.
+        private StepImagePage(Context context) {
+            super(context);
+            m_imageView = new ZoomableImageView(context);
+            m_spinner = new ProgressBar(context);
+
+            addView(m_imageView, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.MATCH_PARENT,
+                    ViewGroup.LayoutParams.MATCH_PARENT
+            ));
+            addView(m_spinner, new FrameLayout.LayoutParams(
+                    ViewGroup.LayoutParams.WRAP_CONTENT,
+                    ViewGroup.LayoutParams.WRAP_CONTENT,
+                    Gravity.CENTER
+            ));
+        }
+
+        /**
+         * Loads the image, scaled down to fit the page.
+         *
+         * @param uri The uri of the image.
+         * @param width The width of the page.
+         * @param height The height of the page.
+         * @param priority The priority of the load.
+         */
+        private void load(final Uri uri, int width, int height, int priority) {
+            if (width <= 0) {
+                // Fall back to the screen width if the pager hasn't been measured.
+                width = getResources().getDisplayMetrics().widthPixels;
+            }
+
+            ImageLoader loader = ImageLoader.getInstance(getContext());
+            Bitmap cached = loader.getCachedToFit(uri, width, height);
+            if (cached != null) {
+                // Prefetched or recently shown.
+                m_spinner.setVisibility(View.GONE);
+                m_imageView.setImage(uri, cached);
+                BitmapPool.getInstance().release(cached);
+                return;
+            }
+
+            m_request = loader.loadToFit(
+                    uri,
+                    width,
+                    height,
+                    priority,
+                    new ImageLoader.Callback() {
+                        @Override
+                        public void onImageLoaded(Bitmap bitmap) {
+                            m_request = null;
+                            m_spinner.setVisibility(View.GONE);
+                            m_imageView.setImage(uri, bitmap);
+                        }
+
+                        @Override
+                        public void onImageFailed(Exception e) {
+                            m_request = null;
+                            m_spinner.setVisibility(View.GONE);
+                            m_imageView.setScaleType(ImageView.ScaleType.CENTER);
+                            m_imageView.setImageResource(R.mipmap.ic_broken_image_black_24dp);
+                        }
+                    }
+            );
+        }
+
+        /**
+         * Changes the priority of the pending load (if any).
+         *
+         * @param priority The new priority.
+         */
+        private void setPriority(int priority) {
+            if (m_request != null) {
+                m_request.setPriority(priority);
+            }
+        }
+
+        /**
+         * Cancels the pending load and returns the page's bitmap and tiles to
+         * the bitmap pool.
+         */
+        private void release() {
+            if (m_request != null) {
+                m_request.cancel();
+                m_request = null;
+            }
+            m_imageView.release();
+            m_imageView.setImageDrawable(null);
+        }
+    }
+
+    /**
+     * Gets the height step images are decoded to fit. Pages are as wide as the
+     * viewer, so together with its width this is the size of every page.
+     *
+     * @param context The context to read resources from.
+     * @return the height in pixels.
+     */
+    public static int getImageHeight(Context context) {
+        return context.getResources().getDimensionPixelSize(R.dimen.step_image_height);
+    }
+
+    /**
+     * Decodes a step's images ahead of its form being shown, so its pages
+     * display without waiting.
+     *
+     * @param context The context to load with.
+     * @param step The step to prefetch images for.
+     * @param width The width of the viewer.
+     * @return the prefetch requests, to be cancelled if no longer needed.
+     */
+    public static ArrayList<ImageLoader.Request> prefetchImages(
+            Context context,
+            Step step,
+            int width) {
+        ArrayList<ImageLoader.Request> requests = new ArrayList<>();
+        ImageLoader loader = ImageLoader.getInstance(context);
+        int height = getImageHeight(context);
+
+        for (int i = 0; i < step.getNumImages(); i++) {
+            Uri uri = step.getImage(i).getImageURI();
+            Bitmap cached = loader.getCachedToFit(uri, width, height);
+            if (cached != null) {
+                BitmapPool.getInstance().release(cached);
+                continue;
+            }
+
+            requests.add(loader.loadToFit(
+                    uri,
+                    width,
+                    height,
+                    ImageLoader.PRIORITY_PREFETCH,
+                    new ImageLoader.Callback() {
+                        @Override
+                        public void onImageLoaded(Bitmap bitmap) {}
+                        @Override
+                        public void onImageFailed(Exception e) {}
+                    }
+            ));
+        }
+        return requests;
+    }
+
+    @Override
+    public void setUserVisibleHint(boolean isVisibleToUser) {
+        super.setUserVisibleHint(isVisibleToUser);
+
+        // Load the images of the step on screen first.
+        for (StepImagePage page : m_pages) {
+            page.setPriority(
+                    isVisibleToUser
+                            ? ImageLoader.PRIORITY_VISIBLE
+                            : ImageLoader.PRIORITY_PREFETCH
+            );
         }
     }
 
@@ -118,4 +313,16 @@ public class StepForm extends Fragment {
 
         return view;
     }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        // The pager doesn't destroy its items with the view, so release the
+        // pages here.
+        for (StepImagePage page : m_pages) {
+            page.release();
+        }
+        m_pages.clear();
+    }
 }
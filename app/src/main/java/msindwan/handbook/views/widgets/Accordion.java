@@ -20,13 +20,16 @@ import android.animation.AnimatorSet;
 import android.animation.ValueAnimator;
 import android.app.Activity;
 import android.content.Context;
+import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.os.Build;
 import android.os.Bundle;
 import android.os.Parcelable;
 import android.support.v4.content.ContextCompat;
 import android.util.AttributeSet;
+import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
@@ -37,6 +40,8 @@ import android.widget.LinearLayout;
 import android.widget.RelativeLayout;
 import android.widget.TextView;
 
+import java.util.ArrayList;
+
 import msindwan.handbook.R;
 
 /**
@@ -76,61 +81,126 @@ public class Accordion extends LinearLayout {
 
     /**
      * Panel:
-     * Defines a panel view for the accordion.
+     * Defines a panel view for the accordion. A panel only holds its item
+     * while it's expanded. In virtualized mode, it also only holds a header
+     * while it's on screen; otherwise it takes the space of one.
      */
     public class Panel extends RelativeLayout {
 
-        // View components.
+        // View components (null while the panel is recycled).
+        private View m_view;
         private LinearLayout m_panelLayout;
         private LinearLayout m_panelHeader;
         private TextView m_title;
+        private ImageView m_arrow;
+
+        private final View.OnClickListener m_onHeaderClick;
+        private String m_titleText;
         private boolean m_active;
-        private int m_height;
+
+        // The height of the item, and how much of it is drawn, while the
+        // panel animates (-1 otherwise).
+        private int m_itemHeight;
+        private int m_revealed;
 
         // Constructors.
         public Panel(Context context) {
             super(context);
             m_active = false;
-            init(context);
+            m_titleText = "";
+            m_itemHeight = 0;
+            m_revealed = -1;
+
+            // Bind click handler to toggle the panel.
+            m_onHeaderClick = new View.OnClickListener() {
+                @Override
+                public void onClick(View view) {
+                    if (m_listener == null || m_listener.onHeaderClick(Panel.this)) {
+                        setActivePanel(getPanelIndex(Panel.this));
+                    }
+                }
+            };
+            init();
         }
 
         /**
          * Initializes the component on mount.
+         */
+        private void init() {
+            // Virtualized panels are bound once they're scrolled into view.
+            if (!m_virtualized) {
+                bind(obtainPanelView());
+            }
+        }
+
+        @Override
+        protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+            if (m_view != null) {
+                super.onMeasure(widthMeasureSpec, heightMeasureSpec);
+                return;
+            }
+
+            // A recycled panel takes the space of its header, so the
+            // accordion scrolls the same whether it's bound or not.
+            int width = getDefaultSize(getSuggestedMinimumWidth(), widthMeasureSpec);
+            setMeasuredDimension(
+                width,
+                getHeaderHeight(width - getPaddingLeft() - getPaddingRight())
+                    + getPaddingTop()
+                    + getPaddingBottom()
+            );
+        }
+
+        /**
+         * Binds a header to the panel.
          *
-         * @param context The initialization context.
+         * @param view The inflated or recycled panel view.
          */
-        private void init(Context context) {
-            inflate(context, R.layout.accordion_panel, this);
-            m_panelLayout = (LinearLayout)findViewById(R.id.accordion_panel);
-            m_panelHeader = (LinearLayout)findViewById(R.id.accordion_panel_header);
-            m_title = (TextView)findViewById(R.id.accordion_panel_header_title);
-            m_height = -1;
-
-            // Listen for global layout changes. Once the panel is rendered,
-            // determine the measured height and hide the layout if it isn't
-            // active.
-            final LinearLayout panelLayout = getLayout();
-            ViewTreeObserver viewTreeObserver = panelLayout.getViewTreeObserver();
-            viewTreeObserver.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
-                @Override
-                public void onGlobalLayout() {
-                    m_height = panelLayout.getMeasuredHeight();
+        private void bind(View view) {
+            m_view = view;
+            m_panelLayout = (LinearLayout)view.findViewById(R.id.accordion_panel);
+            m_panelHeader = (LinearLayout)view.findViewById(R.id.accordion_panel_header);
+            m_title = (TextView)view.findViewById(R.id.accordion_panel_header_title);
+            m_arrow = (ImageView)view.findViewById(R.id.accordion_panel_arrow);
+
+            m_panelLayout.getLayoutParams().height = ViewGroup.LayoutParams.WRAP_CONTENT;
+            m_panelHeader.setOnClickListener(m_onHeaderClick);
+            m_title.setText(m_titleText);
+            paint(false);
+            addView(view);
+        }
 
-                    if (!m_active) {
-                        panelLayout.removeAllViews();
-                    } else {
-                        m_listener.onPanelExpanded(getPanelIndex(Panel.this));
-                    }
+        /**
+         * Returns the header of the panel for reuse by another panel.
+         */
+        private void unbind() {
+            removeView(m_view);
+            m_recycledViews.add(m_view);
+
+            m_view = null;
+            m_panelLayout = null;
+            m_panelHeader = null;
+            m_title = null;
+            m_arrow = null;
+        }
 
-                    // Remove the listener.
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                        panelLayout.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                    } else {
-                        //noinspection deprecation
-                        panelLayout.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                    }
-                }
-            });
+        /**
+         * Checks whether the panel holds a header.
+         *
+         * @return true if the panel is bound.
+         */
+        private boolean isBound() {
+            return m_view != null;
+        }
+
+        /**
+         * Checks whether the header of the panel can be reused, i.e. the
+         * panel is collapsed and isn't animating.
+         *
+         * @return true if the panel can be unbound.
+         */
+        private boolean isRecyclable() {
+            return isBound() && !m_active && m_panelLayout.getChildCount() == 0;
         }
 
         /**
@@ -153,7 +223,10 @@ public class Accordion extends LinearLayout {
          * @param title the title to set.
          */
         public void setTitle(String title) {
-            m_title.setText(title);
+            m_titleText = title;
+            if (m_title != null) {
+                m_title.setText(title);
+            }
         }
 
         /**
@@ -162,85 +235,205 @@ public class Accordion extends LinearLayout {
          * @return the panel title.
          */
         public String getTitle() {
-            return m_title.getText().toString();
+            return m_titleText;
         }
 
         /**
-         * Getter for the panel layout height.
+         * Returns the panel view added to the layout.
          *
-         * @return the panel layout height.
+         * @return the panel view, or null if the panel is collapsed.
          */
-        public final int getPanelHeight() {
-            return m_height;
+        public View getPanelView() {
+            return m_panelLayout == null ? null : m_panelLayout.getChildAt(0);
         }
 
         /**
-         * Returns the panel view added to the layout.
+         * Adds the item to the layout, if it isn't there already.
+         */
+        private void showItem() {
+            if (m_listener != null && m_panelLayout.getChildCount() == 0) {
+                m_panelLayout.addView(m_listener.getItem(getPanelIndex(this)));
+            }
+        }
+
+        /**
+         * Measures the height of the item at the width of the accordion.
          *
-         * @return the panel view.
+         * @return the height of the layout once expanded.
          */
-        public View getPanelView() {
-            return m_panelLayout.getChildAt(0);
+        private int measureItem() {
+            int width = Accordion.this.getWidth()
+                    - Accordion.this.getPaddingLeft()
+                    - Accordion.this.getPaddingRight()
+                    - getPaddingLeft()
+                    - getPaddingRight();
+
+            m_panelLayout.measure(
+                MeasureSpec.makeMeasureSpec(width, MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED)
+            );
+            return m_panelLayout.getMeasuredHeight();
+        }
+
+        /**
+         * Expands the panel without animating, e.g. before it's laid out.
+         */
+        private void open() {
+            activate();
+            showItem();
+
+            // Notify the listener once the item is rendered.
+            ViewTreeObserver viewTreeObserver = getViewTreeObserver();
+            viewTreeObserver.addOnGlobalLayoutListener(new ViewTreeObserver.OnGlobalLayoutListener() {
+                @Override
+                public void onGlobalLayout() {
+                    int index = getPanelIndex(Panel.this);
+                    if (m_listener != null && index == m_activePanel) {
+                        m_listener.onPanelExpanded(index);
+                    }
+
+                    // Remove the listener.
+                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                        getViewTreeObserver().removeOnGlobalLayoutListener(this);
+                    } else {
+                        //noinspection deprecation
+                        getViewTreeObserver().removeGlobalOnLayoutListener(this);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Collapses the panel without animating, e.g. before it's laid out.
+         */
+        private void close() {
+            deactivate();
+            m_panelLayout.removeAllViews();
+        }
+
+        /**
+         * Styles the header for the state of the panel.
+         *
+         * @param animate True to animate the arrow; false to set it.
+         */
+        private void paint(boolean animate) {
+            float rotation = m_active ? 0 : -90;
+            m_arrow.setColorFilter(m_active ? Color.WHITE : Color.BLACK);
+            if (animate) {
+                m_arrow.animate().rotation(rotation).start();
+            } else {
+                m_arrow.animate().cancel();
+                m_arrow.setRotation(rotation);
+            }
+
+            if (m_active) {
+                m_title.setTextColor(Color.WHITE);
+                m_title.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
+                m_panelHeader.setBackgroundColor(
+                    ContextCompat.getColor(getContext(), R.color.colorSecondaryAccent)
+                );
+            } else {
+                m_title.setTextColor(Color.BLACK);
+                m_title.setTypeface(Typeface.defaultFromStyle(Typeface.NORMAL));
+                m_panelHeader.setBackgroundColor(Color.WHITE);
+            }
         }
 
         /**
          * Activates the panel.
          */
         private void activate() {
-            ImageView arrow = (ImageView)m_panelHeader.findViewById(R.id.accordion_panel_arrow);
-            arrow.setColorFilter(Color.WHITE);
-            arrow.animate().rotation(0).start();
-
-            m_title.setTextColor(Color.WHITE);
-            m_title.setTypeface(Typeface.defaultFromStyle(Typeface.BOLD));
-            m_panelHeader.setBackgroundColor(
-                ContextCompat.getColor(getContext(), R.color.colorSecondaryAccent)
-            );
-
             m_active = true;
+            if (!isBound()) {
+                bind(obtainPanelView());
+            } else {
+                paint(true);
+            }
         }
 
         /**
          * Deactivates the panel.
          */
         private void deactivate() {
-            ImageView arrow = (ImageView)m_panelHeader.findViewById(R.id.accordion_panel_arrow);
-            arrow.setColorFilter(Color.BLACK);
-            arrow.animate().rotation(-90).start();
+            m_active = false;
+            if (isBound()) {
+                paint(true);
+            }
+        }
 
-            m_title.setTextColor(Color.BLACK);
-            m_title.setTypeface(Typeface.defaultFromStyle(Typeface.NORMAL));
-            m_panelHeader.setBackgroundColor(Color.WHITE);
+        /**
+         * Gets the height of the item that's hidden by a running animation.
+         *
+         * @return the hidden height, or 0 if the panel isn't animating.
+         */
+        private int getHiddenHeight() {
+            return m_revealed < 0 ? 0 : m_itemHeight - m_revealed;
+        }
 
-            m_active = false;
-            if (m_height > 0) {
-                m_height = m_panelLayout.getHeight();
+        @Override
+        protected void dispatchDraw(Canvas canvas) {
+            if (m_revealed < 0 || m_view == null) {
+                super.dispatchDraw(canvas);
+                return;
             }
+
+            // Only draw the revealed part of the item while animating.
+            int bottom = m_view.getTop() + m_panelLayout.getTop() + m_revealed;
+            canvas.save();
+            canvas.clipRect(0, 0, getWidth(), bottom);
+            super.dispatchDraw(canvas);
+            canvas.restore();
         }
 
         /**
-         * Returns a value animator to collapse the specified panel.
+         * Returns a value animator that reveals part of the item. The panel
+         * keeps its full height throughout; the animator clips the item and
+         * translates the panels below, so frames are only redrawn.
          *
+         * @param from The initial height of the revealed item.
+         * @param to The final height of the revealed item.
          * @return the value animator
          */
-        private ValueAnimator collapse() {
-            final LinearLayout panelLayout = getLayout();
-            deactivate();
+        private ValueAnimator reveal(int from, int to) {
+            m_itemHeight = Math.max(from, to);
+            m_revealed = from;
 
-            ValueAnimator hideLayout = ValueAnimator
-                    .ofInt(getPanelHeight(), 0)
+            ValueAnimator animator = ValueAnimator
+                    .ofInt(from, to)
                     .setDuration(400);
 
-            // Animate collapsing the active tab.
-            hideLayout.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
+            animator.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
                 @Override
                 public void onAnimationUpdate(ValueAnimator animation) {
-                    panelLayout.getLayoutParams().height = (Integer)animation.getAnimatedValue();
-                    panelLayout.requestLayout();
+                    m_revealed = (Integer)animation.getAnimatedValue();
+                    invalidate();
+                    translatePanels();
                 }
             });
 
-            return hideLayout;
+            return animator;
+        }
+
+        /**
+         * Stops clipping the item once the animation ends.
+         */
+        private void endReveal() {
+            m_revealed = -1;
+            m_itemHeight = 0;
+            invalidate();
+        }
+
+        /**
+         * Returns a value animator to collapse the specified panel.
+         *
+         * @return the value animator
+         */
+        private ValueAnimator collapse() {
+            deactivate();
+
+            // The item is removed (and the accordion laid out) once the
+            // animation ends.
+            return reveal(getLayout().getHeight(), 0);
         }
 
         /**
@@ -249,23 +442,11 @@ public class Accordion extends LinearLayout {
          * @return the value animator
          */
         private ValueAnimator expand() {
-            final LinearLayout panelLayout = getLayout();
             activate();
+            showItem();
 
-            ValueAnimator showNewLayout = ValueAnimator
-                    .ofInt(0, getPanelHeight())
-                    .setDuration(400);
-
-            // Animate expanding the new tab.
-            showNewLayout.addUpdateListener(new ValueAnimator.AnimatorUpdateListener() {
-                @Override
-                public void onAnimationUpdate(ValueAnimator animation) {
-                    panelLayout.getLayoutParams().height = (Integer)animation.getAnimatedValue();
-                    panelLayout.requestLayout();
-                }
-            });
-
-            return showNewLayout;
+            // The item is only inflated now, so measure it before it's shown.
+            return reveal(0, measureItem());
         }
 
     }
@@ -294,6 +475,12 @@ public class Accordion extends LinearLayout {
         }
         @Override
         public void onAnimationStart(Animator animation) {
+            // Hide the items before the first frame is drawn.
+            translatePanels();
+            if (m_frameMonitor != null) {
+                m_frameMonitor.start();
+            }
+
             // Disable touch events until the animation completes.
             Activity context = (Activity)getContext();
             context.getWindow().setFlags(
@@ -304,14 +491,22 @@ public class Accordion extends LinearLayout {
         @Override
         public void onAnimationEnd(Animator animation) {
             // Re-enable touch events.
+            if (m_frameMonitor != null) {
+                m_frameMonitor.stop();
+            }
+
+            // Removing the closed item lays the accordion out once, in its
+            // final state.
             if (m_closedPanel != null) {
+                m_closedPanel.endReveal();
                 m_closedPanel.getLayout().removeAllViews();
             }
             if (m_openedPanel != null) {
-                m_openedPanel.getLayout().setLayoutParams(new LayoutParams(
-                    ViewGroup.LayoutParams.MATCH_PARENT,
-                    ViewGroup.LayoutParams.WRAP_CONTENT
-                ));
+                m_openedPanel.endReveal();
+            }
+            translatePanels();
+
+            if (m_openedPanel != null && m_listener != null) {
                 m_listener.onPanelExpanded(getPanelIndex(m_openedPanel));
             }
             enableTouch();
@@ -328,9 +523,24 @@ public class Accordion extends LinearLayout {
     }
 
     // View components.
+    private final ArrayList<View> m_recycledViews = new ArrayList<>();
+    private final Rect m_visibleRect = new Rect();
     private AccordionListener m_listener;
+    private FrameMonitor m_frameMonitor;
+    private boolean m_virtualized;
+    private int m_headerHeight;
     private int m_activePanel;
 
+    // Binds headers to the panels scrolled into view before they're drawn.
+    private final ViewTreeObserver.OnPreDrawListener m_onPreDraw
+            = new ViewTreeObserver.OnPreDrawListener() {
+        @Override
+        public boolean onPreDraw() {
+            // Skip the frame if headers were bound, so they're laid out first.
+            return !bindVisiblePanels();
+        }
+    };
+
     // Constructors.
     public Accordion(Context context) {
         super(context);
@@ -342,6 +552,18 @@ public class Accordion extends LinearLayout {
         init(context);
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        getViewTreeObserver().addOnPreDrawListener(m_onPreDraw);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        getViewTreeObserver().removeOnPreDrawListener(m_onPreDraw);
+        super.onDetachedFromWindow();
+    }
+
     @Override
     protected Parcelable onSaveInstanceState() {
         Bundle bundle = new Bundle();
@@ -369,9 +591,110 @@ public class Accordion extends LinearLayout {
                 ViewGroup.LayoutParams.WRAP_CONTENT
         ));
         setOrientation(LinearLayout.VERTICAL);
+        m_virtualized = false;
+        m_headerHeight = -1;
         m_activePanel = 0;
     }
 
+    /**
+     * Sets whether panels only hold a header while they're on screen, so a
+     * long accordion costs about as much as a screenful of panels. Must be
+     * set before panels are added.
+     *
+     * @param virtualized True to recycle the headers of off screen panels.
+     */
+    public void setVirtualized(boolean virtualized) {
+        m_virtualized = virtualized;
+    }
+
+    /**
+     * Sets a monitor to record frame times while panels animate.
+     *
+     * @param monitor The monitor, or null.
+     */
+    public void setFrameMonitor(FrameMonitor monitor) {
+        m_frameMonitor = monitor;
+    }
+
+    /**
+     * Translates each panel up by the item height hidden above it, so the
+     * panels below an animating panel follow it without a layout pass.
+     */
+    private void translatePanels() {
+        int offset = 0;
+        for (int i = 0; i < getNumPanels(); i++) {
+            Panel panel = getPanel(i);
+            panel.setTranslationY(offset);
+            offset -= panel.getHiddenHeight();
+        }
+    }
+
+    /**
+     * Returns a recycled panel view, or inflates a new one.
+     *
+     * @return the panel view.
+     */
+    private View obtainPanelView() {
+        if (!m_recycledViews.isEmpty()) {
+            return m_recycledViews.remove(m_recycledViews.size() - 1);
+        }
+        return LayoutInflater.from(getContext()).inflate(R.layout.accordion_panel, this, false);
+    }
+
+    /**
+     * Gets the height of a collapsed panel view, measuring one the first
+     * time. Titles are a single line, so every header is the same height.
+     *
+     * @param width The width of the panel view.
+     * @return the header height.
+     */
+    private int getHeaderHeight(int width) {
+        if (m_headerHeight == -1) {
+            View view = obtainPanelView();
+            view.measure(
+                MeasureSpec.makeMeasureSpec(Math.max(width, 0), MeasureSpec.EXACTLY),
+                MeasureSpec.makeMeasureSpec(0, MeasureSpec.UNSPECIFIED)
+            );
+            m_headerHeight = view.getMeasuredHeight();
+            m_recycledViews.add(view);
+        }
+        return m_headerHeight;
+    }
+
+    /**
+     * Binds headers to the panels near the visible part of the accordion
+     * and recycles the headers of panels far from it.
+     *
+     * @return true if a header was bound.
+     */
+    private boolean bindVisiblePanels() {
+        if (!m_virtualized || !getLocalVisibleRect(m_visibleRect))
+            return false;
+
+        // Bind half a screen ahead, and only recycle a screen away, so
+        // panels at the edge aren't bound and recycled back and forth.
+        int margin = m_visibleRect.height() / 2;
+        boolean bound = false;
+
+        for (int i = 0; i < getNumPanels(); i++) {
+            Panel panel = getPanel(i);
+            int distance = Math.max(
+                m_visibleRect.top - panel.getBottom(),
+                panel.getTop() - m_visibleRect.bottom
+            );
+
+            if (!panel.isBound()) {
+                if (distance <= margin) {
+                    panel.bind(obtainPanelView());
+                    bound = true;
+                }
+            } else if (distance > 2 * margin && panel.isRecyclable()) {
+                panel.unbind();
+            }
+        }
+        return bound;
+    }
+
     /**
      * Getter for the size of the panels container.
      *
@@ -389,17 +712,6 @@ public class Accordion extends LinearLayout {
     public Panel addPanel() {
         // Create a new panel instance.
         final Panel panel = new Panel(getContext());
-        LinearLayout panelHeader = panel.getHeader();
-
-        // Bind click handler to toggle the panel.
-        panelHeader.setOnClickListener(new View.OnClickListener() {
-            @Override
-            public void onClick(View view) {
-                if (m_listener == null || m_listener.onHeaderClick(panel)) {
-                    setActivePanel(getPanelIndex(panel));
-                }
-            }
-        });
 
         // Add the panel.
         addView(panel, new RelativeLayout.LayoutParams(
@@ -407,18 +719,14 @@ public class Accordion extends LinearLayout {
                 LayoutParams.WRAP_CONTENT
         ));
 
-        if (m_listener != null) {
-            panel.getLayout().addView(m_listener.getItem(getNumPanels() - 1));
-        }
-
         if (getNumPanels() - 1 != m_activePanel) {
-            // Deactivate and hide the panel.
+            // Deactivate the panel. Its item is only added once it's expanded.
             panel.deactivate();
             panel.setPadding(10, 0, 10, 10);
         } else {
             // The first panel is activated by default.
-            panel.activate();
             panel.setPadding(10, 10, 10, 10);
+            panel.open();
         }
 
         return panel;
@@ -462,10 +770,6 @@ public class Accordion extends LinearLayout {
             m_activePanel = Math.max(index - 1, 0);
             Panel panelToOpen = getPanel(m_activePanel);
 
-            if (m_listener != null) {
-                panelToOpen.getLayout().addView(m_listener.getItem(m_activePanel));
-            }
-
             AnimatorSet set = createSet(null, panelToOpen);
             set.playTogether(panelToOpen.expand());
             set.start();
@@ -487,35 +791,14 @@ public class Accordion extends LinearLayout {
 
         m_activePanel = getPanelIndex(panel);
 
-        // If the height hasn't been calculated for either panel, use "activate" or
-        // "deactivate" rather than collapsing the panels with animations that rely
-        // on the height.
-        if (activePanel.getPanelHeight() == -1 || panel.getPanelHeight() == -1) {
-
-            if (activePanel.getPanelHeight() == -1 && panel.getPanelHeight() == -1) {
-                // Both heights haven't been computed yet, so deactivate and activate them.
-                activePanel.deactivate();
-                panel.activate();
-            } else if (activePanel.getPanelHeight() == -1) {
-                // Deactivate the active panel and expand the new panel.
-                activePanel.deactivate();
-                AnimatorSet set = createSet(null, panel);
-                set.playTogether(panel.expand());
-                set.start();
-            } else {
-                // Activate the new panel and collapse the old panel.
-                panel.activate();
-                AnimatorSet set = createSet(activePanel, null);
-                set.playTogether(activePanel.collapse());
-                set.start();
-            }
+        // If the accordion hasn't been laid out yet, there's nothing to
+        // animate, so toggle the panels directly.
+        if (getWidth() == 0) {
+            activePanel.close();
+            panel.open();
             return;
         }
 
-        if (m_listener != null) {
-            panel.getLayout().addView(m_listener.getItem(m_activePanel));
-        }
-
         // Play the animations together.
         AnimatorSet set = createSet(activePanel, panel);
         set.playTogether(activePanel.collapse(), panel.expand());
@@ -541,9 +824,13 @@ public class Accordion extends LinearLayout {
         if (m_activePanel == oldPosition) {
             m_activePanel = newPosition;
         }
+        // Reorder the panel without detaching it from the window, so its
+        // content keeps its state (e.g. loaded images).
         Panel panel = getPanel(oldPosition);
-        removeView(panel);
-        addView(panel, newPosition);
+        detachViewFromParent(panel);
+        attachViewToParent(panel, newPosition, panel.getLayoutParams());
+        requestLayout();
+        invalidate();
     }
 
     /**
@@ -28,6 +28,7 @@ import android.net.Uri;
 import android.os.Build;
 import android.os.Parcelable;
 import android.provider.MediaStore;
+import android.support.v4.content.FileProvider;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.View;
@@ -40,10 +41,12 @@ import android.widget.RelativeLayout;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 import msindwan.handbook.R;
+import msindwan.handbook.images.BitmapPool;
 
 /**
  * FileUploader:
@@ -63,6 +66,7 @@ public class FileUploader extends RelativeLayout {
         private Button m_removeButton;
         private TextView m_subTitle;
         private TextView m_title;
+        private Bitmap m_bitmap;
         private Object m_args;
 
         // Constructors.
@@ -175,21 +179,51 @@ public class FileUploader extends RelativeLayout {
          * @param drawable The drawable to set.
          */
         public void setPreview(Drawable drawable) {
+            releasePreview();
             m_thumbnail.setImageDrawable(drawable);
             crossFadeThumbnail();
         }
 
         /**
-         * The bitmap to set as the preview.
+         * The bitmap to set as the preview. The bitmap is retained until the
+         * item is detached or its preview is replaced.
          *
          * @param bitmap The bitmap to set.
          */
         public void setPreview(Bitmap bitmap) {
+            BitmapPool.getInstance().retain(bitmap);
+            releasePreview();
+            m_bitmap = bitmap;
             m_thumbnail.setImageBitmap(bitmap);
             crossFadeThumbnail();
         }
+
+        /**
+         * Returns the preview bitmap (if any) to the bitmap pool.
+         */
+        private void releasePreview() {
+            if (m_bitmap != null) {
+                BitmapPool.getInstance().release(m_bitmap);
+                m_bitmap = null;
+            }
+        }
+
+        @Override
+        protected void onDetachedFromWindow() {
+            // Items are recreated whenever their panel is expanded, so a detached
+            // item's preview can be pooled.
+            m_thumbnail.setImageDrawable(null);
+            releasePreview();
+            super.onDetachedFromWindow();
+        }
     }
 
+    private static final String FILE_PROVIDER_AUTHORITY = "msindwan.handbook.fileprovider";
+
+    // The access camera apps are granted to the capture file.
+    public static final int CAPTURE_GRANT_FLAGS = Intent.FLAG_GRANT_READ_URI_PERMISSION
+            | Intent.FLAG_GRANT_WRITE_URI_PERMISSION;
+
     private LinearLayout m_items;
     private LinearLayout m_zone;
 
@@ -238,6 +272,15 @@ public class FileUploader extends RelativeLayout {
         return (FileUploaderItem)m_items.getChildAt(index);
     }
 
+    /**
+     * Returns the number of file uploader items in the container.
+     *
+     * @return The number of items.
+     */
+    public int getNumFileUploaderItems() {
+        return m_items.getChildCount();
+    }
+
     /**
      * Removes a file uploader item from the container.
      *
@@ -247,15 +290,31 @@ public class FileUploader extends RelativeLayout {
         m_items.removeView(item);
     }
 
+    /**
+     * Gets the uri that camera apps are given to write a capture file.
+     *
+     * @param context The context.
+     * @param captureFile The capture file.
+     * @return the content uri of the capture file.
+     */
+    public static Uri getCaptureUri(Context context, File captureFile) {
+        return FileProvider.getUriForFile(context, FILE_PROVIDER_AUTHORITY, captureFile);
+    }
+
     /**
      * Creates an intent to select files.
      *
+     * @param captureFile The file that camera apps write captured photos to.
      * @return the file chooser intent.
      */
-    public Intent select() {
+    public Intent select(File captureFile) {
         final Activity activity = (Activity)getContext();
         try {
 
+                // Camera apps write the full size photo straight to the file,
+                // rather than returning a small bitmap through the intent.
+                final Uri captureUri = getCaptureUri(activity, captureFile);
+
                 final List<Intent> cameraIntents = new ArrayList<>();
                 final Intent captureIntent = new Intent(MediaStore.ACTION_IMAGE_CAPTURE);
                 final PackageManager packageManager = activity.getPackageManager();
@@ -264,6 +323,13 @@ public class FileUploader extends RelativeLayout {
                     final String packageName = res.activityInfo.packageName;
                     final Intent intent = new Intent(captureIntent);
                     intent.setPackage(packageName);
+                    intent.putExtra(MediaStore.EXTRA_OUTPUT, captureUri);
+                    intent.addFlags(CAPTURE_GRANT_FLAGS);
+
+                    // Intent flags only grant access to the output uri from
+                    // Lollipop, so grant it to the camera app explicitly. The
+                    // grant is revoked once the result arrives.
+                    activity.grantUriPermission(packageName, captureUri, CAPTURE_GRANT_FLAGS);
                     cameraIntents.add(intent);
                 }
                 Intent galleryIntent;
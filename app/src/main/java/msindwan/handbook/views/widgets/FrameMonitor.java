@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.views.widgets;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.WindowManager;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FrameMonitor:
+ * Records the time between frames while an animation runs, so its
+ * smoothness can be measured on a device. Frames that take longer than the
+ * display's refresh interval drop the vsyncs they miss. Frames are only
+ * recorded on Jelly Bean and above.
+ */
+@SuppressWarnings("WeakerAccess")
+public class FrameMonitor {
+
+    private static final String TAG = "FrameMonitor";
+
+    private final String m_name;
+    private final long m_frameInterval;
+    private Choreographer.FrameCallback m_callback;
+    private boolean m_running;
+
+    // Statistics of the last recording.
+    private long m_lastFrameTime;
+    private long m_totalTime;
+    private long m_maxTime;
+    private int m_frames;
+    private int m_dropped;
+
+    /**
+     * Constructor.
+     *
+     * @param context The context of the monitored window.
+     * @param name The name of the animation, for the log.
+     */
+    public FrameMonitor(Context context, String name) {
+        WindowManager windowManager =
+                (WindowManager)context.getSystemService(Context.WINDOW_SERVICE);
+        float refreshRate = windowManager.getDefaultDisplay().getRefreshRate();
+
+        m_name = name;
+        m_frameInterval = (long)(TimeUnit.SECONDS.toNanos(1) / (refreshRate > 0 ? refreshRate : 60));
+        m_running = false;
+    }
+
+    /**
+     * Starts recording frames, discarding the previous recording. Must be
+     * called from the main thread.
+     */
+    public void start() {
+        if (m_running || Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN)
+            return;
+
+        m_lastFrameTime = 0;
+        m_totalTime = 0;
+        m_maxTime = 0;
+        m_frames = 0;
+        m_dropped = 0;
+        m_running = true;
+        postFrameCallback();
+    }
+
+    /**
+     * Stops recording frames and logs the recording. Must be called from
+     * the main thread.
+     */
+    public void stop() {
+        if (!m_running)
+            return;
+
+        m_running = false;
+        removeFrameCallback();
+        Log.i(TAG, toString());
+    }
+
+    /**
+     * Records a frame.
+     *
+     * @param frameTimeNanos The vsync time of the frame, in nanoseconds.
+     */
+    private void record(long frameTimeNanos) {
+        if (m_lastFrameTime != 0) {
+            long time = frameTimeNanos - m_lastFrameTime;
+            m_frames++;
+            m_totalTime += time;
+            m_maxTime = Math.max(m_maxTime, time);
+            m_dropped += Math.max(Math.round((double)time / m_frameInterval) - 1, 0);
+        }
+        m_lastFrameTime = frameTimeNanos;
+    }
+
+    /**
+     * Gets the number of frames recorded.
+     *
+     * @return the frame count.
+     */
+    public int getFrameCount() {
+        return m_frames;
+    }
+
+    /**
+     * Gets the number of vsyncs missed by the recorded frames.
+     *
+     * @return the dropped frame count.
+     */
+    public int getDroppedFrameCount() {
+        return m_dropped;
+    }
+
+    /**
+     * Gets the average time between the recorded frames.
+     *
+     * @return the average frame time in milliseconds.
+     */
+    public double getAverageFrameTime() {
+        return m_frames == 0 ? 0 : m_totalTime / (m_frames * 1e6);
+    }
+
+    /**
+     * Gets the longest time between the recorded frames.
+     *
+     * @return the maximum frame time in milliseconds.
+     */
+    public double getMaxFrameTime() {
+        return m_maxTime / 1e6;
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postFrameCallback() {
+        if (m_callback == null) {
+            m_callback = new Choreographer.FrameCallback() {
+                @Override
+                public void doFrame(long frameTimeNanos) {
+                    if (!m_running)
+                        return;
+
+                    record(frameTimeNanos);
+                    Choreographer.getInstance().postFrameCallback(this);
+                }
+            };
+        }
+        Choreographer.getInstance().postFrameCallback(m_callback);
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void removeFrameCallback() {
+        Choreographer.getInstance().removeFrameCallback(m_callback);
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                Locale.US,
+                "FrameMonitor[%s,frames=%d,average=%.1fms,max=%.1fms,dropped=%d]",
+                m_name,
+                m_frames,
+                getAverageFrameTime(),
+                getMaxFrameTime(),
+                m_dropped
+        );
+    }
+}
@@ -0,0 +1,608 @@
+/*
+ * Copyright (C) 2017 Mayank Sindwani
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package msindwan.handbook.views.widgets;
+
+import android.content.ComponentCallbacks2;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.util.AttributeSet;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.GestureDetector;
+import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
+import android.widget.ImageView;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+
+import msindwan.handbook.images.BitmapPool;
+import msindwan.handbook.images.ImageLoader;
+import msindwan.handbook.images.MemoryGovernor;
+
+/**
+ * ZoomableImageView:
+ * Defines an image view that can be pinched, double tapped and panned to zoom
+ * into an image. A downsampled preview is drawn at every zoom level, and once
+ * it's too coarse only the visible tiles of the original image are decoded,
+ * at the resolution they're displayed at.
+ */
+@SuppressWarnings("unused")
+public class ZoomableImageView extends ImageView {
+
+    private static final String TAG = "ZoomableImageView";
+    // The size of a tile in decoded pixels.
+    private static final int TILE_SIZE = 512;
+    // The maximum zoom, in screen pixels per image pixel.
+    private static final float MAX_SCALE = 2f;
+    private static final float DOUBLE_TAP_ZOOM = 3f;
+
+    // Tiles are shared by every view, so pages that are recreated don't
+    // decode their tiles again.
+    private static final LruCache<String, Bitmap> TILES = new LruCache<String, Bitmap>(
+            MemoryGovernor.getInstance().getCacheSize(16)) {
+        @Override
+        protected int sizeOf(String key, Bitmap bitmap) {
+            return bitmap.getByteCount();
+        }
+
+        @Override
+        protected void entryRemoved(
+                boolean evicted, String key, Bitmap oldValue, Bitmap newValue) {
+            BitmapPool.getInstance().release(oldValue);
+        }
+    };
+
+    static {
+        MemoryGovernor.getInstance().register(
+                "tiles", TILES, ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
+    }
+
+    /**
+     * Tile:
+     * A region of the image decoded at a given sample size. The bitmap is
+     * retained while the tile is visible.
+     */
+    private static class Tile {
+        private final String m_key;
+        private final Rect m_region;
+        private Bitmap m_bitmap;
+
+        private Tile(String key, Rect region) {
+            m_key = key;
+            m_region = region;
+        }
+    }
+
+    private final HashMap<String, ImageLoader.Request> m_tileRequests = new HashMap<>();
+    private final ArrayList<Tile> m_visibleTiles = new ArrayList<>();
+    private final Paint m_paint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final RectF m_destination = new RectF();
+    private ScaleGestureDetector m_scaleDetector;
+    private GestureDetector m_gestureDetector;
+    private OpenRegionDecoder m_openTask;
+    private BitmapRegionDecoder m_decoder;
+    private Bitmap m_preview;
+    private Uri m_uri;
+    private int m_imageWidth;
+    private int m_imageHeight;
+    private float m_minScale;
+    private float m_maxScale;
+    private float m_scale;
+    private float m_translateX;
+    private float m_translateY;
+
+    /**
+     * OpenRegionDecoder:
+     * Opens the region decoder of the original image in the background.
+     */
+    private class OpenRegionDecoder extends AsyncTask<Uri, Void, BitmapRegionDecoder> {
+
+        private final ContentResolver m_resolver;
+
+        private OpenRegionDecoder(ContentResolver resolver) {
+            m_resolver = resolver;
+        }
+
+        @Override
+        protected BitmapRegionDecoder doInBackground(Uri... uris) {
+            try {
+                InputStream stream = m_resolver.openInputStream(uris[0]);
+                if (stream == null)
+                    return null;
+
+                try {
+                    return BitmapRegionDecoder.newInstance(stream, false);
+                } finally {
+                    stream.close();
+                }
+            } catch (IOException e) {
+                // Formats other than JPEG and PNG can't be tiled; the preview is
+                // shown without zoom.
+                Log.w(TAG, "Cannot tile " + uris[0], e);
+                return null;
+            }
+        }
+
+        @Override
+        protected void onPostExecute(BitmapRegionDecoder decoder) {
+            if (m_openTask != this) {
+                if (decoder != null) {
+                    decoder.recycle();
+                }
+                return;
+            }
+
+            m_openTask = null;
+            if (decoder != null) {
+                m_decoder = decoder;
+                m_imageWidth = decoder.getWidth();
+                m_imageHeight = decoder.getHeight();
+                resetScale();
+            }
+        }
+
+        @Override
+        protected void onCancelled(BitmapRegionDecoder decoder) {
+            if (decoder != null) {
+                decoder.recycle();
+            }
+        }
+    }
+
+    // Constructors.
+    public ZoomableImageView(Context context) {
+        super(context);
+        init(context);
+    }
+
+    public ZoomableImageView(Context context, AttributeSet attrs) {
+        super(context, attrs);
+        init(context);
+    }
+
+    /**
+     * Initializes the component on mount.
+     *
+     * @param context The initialization context.
+     */
+    private void init(Context context) {
+        m_scaleDetector = new ScaleGestureDetector(context, onScale);
+        m_gestureDetector = new GestureDetector(context, onGesture);
+    }
+
+    /**
+     * Sets the image to display.
+     *
+     * @param uri The uri of the original image, decoded for zoomed in tiles.
+     * @param preview A downsampled copy of the image, drawn until tiles are needed.
+     */
+    public void setImage(Uri uri, Bitmap preview) {
+        release();
+        super.setImageDrawable(null);
+
+        BitmapPool.getInstance().retain(preview);
+        m_uri = uri;
+        m_preview = preview;
+        m_imageWidth = preview.getWidth();
+        m_imageHeight = preview.getHeight();
+        resetScale();
+
+        m_openTask = new OpenRegionDecoder(getContext().getContentResolver());
+        m_openTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR, uri);
+    }
+
+    /**
+     * Cancels pending tiles and releases the preview, tiles and region
+     * decoder. The view shows nothing until another image is set.
+     */
+    public void release() {
+        if (m_openTask != null) {
+            m_openTask.cancel(false);
+            m_openTask = null;
+        }
+        for (ImageLoader.Request request : m_tileRequests.values()) {
+            request.cancel();
+        }
+        m_tileRequests.clear();
+        releaseTiles(m_visibleTiles);
+        m_visibleTiles.clear();
+
+        if (m_decoder != null) {
+            m_decoder.recycle();
+            m_decoder = null;
+        }
+        if (m_preview != null) {
+            BitmapPool.getInstance().release(m_preview);
+            m_preview = null;
+        }
+        m_uri = null;
+        invalidate();
+    }
+
+    @Override
+    public void setImageBitmap(Bitmap bitmap) {
+        release();
+        super.setImageBitmap(bitmap);
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        release();
+        super.setImageResource(resId);
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        release();
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        resetScale();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        if (m_preview == null) {
+            super.onDraw(canvas);
+            return;
+        }
+
+        // Draw the preview underneath, then whichever visible tiles are decoded.
+        m_destination.set(
+                m_translateX,
+                m_translateY,
+                m_translateX + m_imageWidth * m_scale,
+                m_translateY + m_imageHeight * m_scale
+        );
+        canvas.drawBitmap(m_preview, null, m_destination, m_paint);
+
+        for (Tile tile : m_visibleTiles) {
+            if (tile.m_bitmap == null)
+                continue;
+
+            m_destination.set(
+                    m_translateX + tile.m_region.left * m_scale,
+                    m_translateY + tile.m_region.top * m_scale,
+                    m_translateX + tile.m_region.right * m_scale,
+                    m_translateY + tile.m_region.bottom * m_scale
+            );
+            canvas.drawBitmap(tile.m_bitmap, null, m_destination, m_paint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (m_preview == null)
+            return super.onTouchEvent(event);
+
+        m_scaleDetector.onTouchEvent(event);
+        m_gestureDetector.onTouchEvent(event);
+
+        // Keep the pager and scroll view from taking over while pinching or
+        // panning a zoomed image.
+        if (event.getPointerCount() > 1 || isZoomed()) {
+            getParent().requestDisallowInterceptTouchEvent(true);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean canScrollHorizontally(int direction) {
+        if (m_preview == null || !isZoomed())
+            return false;
+
+        if (direction > 0) {
+            return m_translateX + m_imageWidth * m_scale > getWidth() + 0.5f;
+        }
+        return m_translateX < -0.5f;
+    }
+
+    /**
+     * Checks whether the image is zoomed in past fitting the view.
+     *
+     * @return true if zoomed in.
+     */
+    private boolean isZoomed() {
+        return m_scale > m_minScale * 1.01f;
+    }
+
+    /**
+     * Fits the image within the view and centers it. Zooming is enabled once
+     * the region decoder is open.
+     */
+    private void resetScale() {
+        if (getWidth() == 0 || getHeight() == 0 || m_imageWidth == 0 || m_imageHeight == 0)
+            return;
+
+        m_minScale = Math.min(
+                (float)getWidth() / m_imageWidth,
+                (float)getHeight() / m_imageHeight
+        );
+        m_maxScale = m_decoder != null ? Math.max(m_minScale, MAX_SCALE) : m_minScale;
+        m_scale = m_minScale;
+        m_translateX = (getWidth() - m_imageWidth * m_scale) / 2;
+        m_translateY = (getHeight() - m_imageHeight * m_scale) / 2;
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     * Zooms to a scale around a focal point.
+     *
+     * @param scale The new scale.
+     * @param focusX The x coordinate to zoom around.
+     * @param focusY The y coordinate to zoom around.
+     */
+    private void zoomTo(float scale, float focusX, float focusY) {
+        scale = Math.max(m_minScale, Math.min(m_maxScale, scale));
+        m_translateX = focusX - (focusX - m_translateX) * scale / m_scale;
+        m_translateY = focusY - (focusY - m_translateY) * scale / m_scale;
+        m_scale = scale;
+        clampTranslation();
+        updateTiles();
+        invalidate();
+    }
+
+    /**
+     * Keeps the image covering the view along each axis it's larger than the
+     * view, and centered along the others.
+     */
+    private void clampTranslation() {
+        float width = m_imageWidth * m_scale;
+        float height = m_imageHeight * m_scale;
+
+        if (width <= getWidth()) {
+            m_translateX = (getWidth() - width) / 2;
+        } else {
+            m_translateX = Math.max(getWidth() - width, Math.min(0, m_translateX));
+        }
+        if (height <= getHeight()) {
+            m_translateY = (getHeight() - height) / 2;
+        } else {
+            m_translateY = Math.max(getHeight() - height, Math.min(0, m_translateY));
+        }
+    }
+
+    /**
+     * Determines the tiles covering the visible part of the image, requests
+     * those that aren't decoded and cancels requests that are no longer visible.
+     */
+    private void updateTiles() {
+        ArrayList<Tile> previousTiles = new ArrayList<>(m_visibleTiles);
+        HashSet<String> visible = new HashSet<>();
+        m_visibleTiles.clear();
+
+        // Tiles are only needed once the preview has fewer pixels than it's drawn with.
+        if (m_decoder != null && m_preview.getWidth() < m_imageWidth * m_scale) {
+            // Decode at the largest sample size that still has a pixel per screen pixel.
+            int sampleSize = 1;
+            while (sampleSize * 2 * m_scale <= 1f) {
+                sampleSize *= 2;
+            }
+            int tileSize = TILE_SIZE * sampleSize;
+
+            int left = (int)Math.max(0, -m_translateX / m_scale);
+            int top = (int)Math.max(0, -m_translateY / m_scale);
+            int right = (int)Math.min(m_imageWidth, (getWidth() - m_translateX) / m_scale);
+            int bottom = (int)Math.min(m_imageHeight, (getHeight() - m_translateY) / m_scale);
+
+            for (int row = top / tileSize; row * tileSize < bottom; row++) {
+                for (int col = left / tileSize; col * tileSize < right; col++) {
+                    Rect region = new Rect(
+                            col * tileSize,
+                            row * tileSize,
+                            Math.min(m_imageWidth, (col + 1) * tileSize),
+                            Math.min(m_imageHeight, (row + 1) * tileSize)
+                    );
+                    String key = String.format(
+                            Locale.US, "%s#%d:%d:%d", m_uri, sampleSize, col, row);
+
+                    Tile tile = new Tile(key, region);
+                    tile.m_bitmap = getTile(key);
+                    m_visibleTiles.add(tile);
+                    visible.add(key);
+
+                    if (tile.m_bitmap == null && !m_tileRequests.containsKey(key)) {
+                        requestTile(key, region, sampleSize);
+                    }
+                }
+            }
+        }
+
+        // Cancel the tiles that scrolled out of view or are at another zoom level.
+        Iterator<Map.Entry<String, ImageLoader.Request>> it = m_tileRequests.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<String, ImageLoader.Request> entry = it.next();
+            if (!visible.contains(entry.getKey())) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+
+        // Release the previous tiles after retaining the new ones, so tiles
+        // that are still visible aren't pooled in between.
+        releaseTiles(previousTiles);
+    }
+
+    /**
+     * Releases the bitmaps of tiles.
+     *
+     * @param tiles The tiles to release.
+     */
+    private static void releaseTiles(ArrayList<Tile> tiles) {
+        BitmapPool pool = BitmapPool.getInstance();
+        for (Tile tile : tiles) {
+            if (tile.m_bitmap != null) {
+                pool.release(tile.m_bitmap);
+                tile.m_bitmap = null;
+            }
+        }
+    }
+
+    /**
+     * Returns a decoded tile, retained for the caller.
+     *
+     * @param key The key of the tile.
+     * @return the tile, or null if it isn't decoded.
+     */
+    private static Bitmap getTile(String key) {
+        BitmapPool pool = BitmapPool.getInstance();
+
+        // Hold the pool's lock so the tile can't be evicted and reused before
+        // it's retained.
+        synchronized (pool) {
+            Bitmap bitmap = TILES.get(key);
+            if (bitmap != null) {
+                pool.retain(bitmap);
+            }
+            return bitmap;
+        }
+    }
+
+    /**
+     * Decodes a tile in the background and redraws once it's ready.
+     *
+     * @param key The key of the tile.
+     * @param region The region of the image the tile covers.
+     * @param sampleSize The sample size to decode at.
+     */
+    private void requestTile(final String key, final Rect region, final int sampleSize) {
+        final BitmapRegionDecoder decoder = m_decoder;
+
+        ImageLoader.Request request = ImageLoader.getInstance(getContext()).load(
+                key,
+                new ImageLoader.Decoder() {
+                    @Override
+                    public Bitmap decode() throws Exception {
+                        BitmapPool pool = BitmapPool.getInstance();
+                        BitmapFactory.Options options = new BitmapFactory.Options();
+                        options.inSampleSize = sampleSize;
+                        pool.prepare(options, region.width(), region.height(),
+                                pool.getPreferredConfig());
+                        Bitmap reusable = options.inBitmap;
+
+                        Bitmap tile;
+                        try {
+                            tile = decoder.decodeRegion(region, options);
+                        } catch (IllegalArgumentException e) {
+                            options.inBitmap = null;
+                            tile = decoder.decodeRegion(region, options);
+                        }
+                        if (reusable != null && tile != reusable) {
+                            pool.put(reusable);
+                        }
+                        if (tile == null) {
+                            throw new IOException("Cannot decode tile " + key);
+                        }
+
+                        // Retain the tile once for the cache and once for delivery.
+                        synchronized (pool) {
+                            pool.retain(tile);
+                            pool.retain(tile);
+                            TILES.put(key, tile);
+                        }
+                        return tile;
+                    }
+                },
+                ImageLoader.PRIORITY_VISIBLE,
+                new ImageLoader.Callback() {
+                    @Override
+                    public void onImageLoaded(Bitmap bitmap) {
+                        m_tileRequests.remove(key);
+                        for (Tile tile : m_visibleTiles) {
+                            if (tile.m_key.equals(key) && tile.m_bitmap == null) {
+                                BitmapPool.getInstance().retain(bitmap);
+                                tile.m_bitmap = bitmap;
+                                invalidate();
+                            }
+                        }
+                    }
+
+                    @Override
+                    public void onImageFailed(Exception e) {
+                        m_tileRequests.remove(key);
+                        Log.w(TAG, "Cannot decode tile", e);
+                    }
+                }
+        );
+        m_tileRequests.put(key, request);
+    }
+
+    /**
+     * Listener for pinch gestures.
+     */
+    private ScaleGestureDetector.OnScaleGestureListener onScale
+            = new ScaleGestureDetector.SimpleOnScaleGestureListener() {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            zoomTo(m_scale * detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
+    };
+
+    /**
+     * Listener for panning and double taps.
+     */
+    private GestureDetector.OnGestureListener onGesture
+            = new GestureDetector.SimpleOnGestureListener() {
+        @Override
+        public boolean onDown(MotionEvent e) {
+            return true;
+        }
+
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float dx, float dy) {
+            if (!isZoomed())
+                return false;
+
+            m_translateX -= dx;
+            m_translateY -= dy;
+            clampTranslation();
+            updateTiles();
+            invalidate();
+            return true;
+        }
+
+        @Override
+        public boolean onDoubleTap(MotionEvent e) {
+            if (isZoomed()) {
+                zoomTo(m_minScale, e.getX(), e.getY());
+            } else {
+                zoomTo(m_minScale * DOUBLE_TAP_ZOOM, e.getX(), e.getY());
+            }
+            return true;
+        }
+    };
+}